@@ -0,0 +1,73 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes synthetic input files in the format the job reads: a header line followed by firstName,lastName lines.
+ * The names are random letters, capitalised, from a fixed seed so every run reads the same data.
+ */
+public final class CsvGenerator {
+
+    private CsvGenerator() {
+    }
+
+    /**
+     * @param file       the file to write
+     * @param rows       the number of lines after the header
+     * @param nameLength the length of each first and last name
+     * @param header     the header line, e.g. email:someone@example.com
+     * @return the file
+     */
+    public static Path generate(Path file, int rows, int nameLength, String header) throws IOException {
+        Random random = new Random(rows);
+        char[] name = new char[nameLength];
+        try (BufferedWriter writer = Files.newBufferedWriter(file, Charset.defaultCharset())) {
+            writer.write(header);
+            writer.newLine();
+            for (int i = 0; i < rows; i++) {
+                writer.write(name(random, name));
+                writer.write(',');
+                writer.write(name(random, name));
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return a random name of the length of the given buffer
+     */
+    static String name(Random random, char[] name) {
+        for (int i = 0; i < name.length; i++) {
+            name[i] = (char) ((i == 0 ? 'A' : 'a') + random.nextInt(26));
+        }
+        return new String(name);
+    }
+
+    /**
+     * Deletes a directory created by a benchmark and everything in it.
+     */
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (java.util.stream.Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(java.util.Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.EnrichingItemProcessor;
+import com.martin.Person;
+import com.martin.ReferenceIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enriches one Person per operation with the {@link EnrichingItemProcessor}, from the {@link ReferenceIndex} of a
+ * synthetic reference file of referenceRows keys. The keys looked up are drawn from the first hotKeys of them, a
+ * cacheSize at least hotKeys has them all on the heap, 0 looks every one up in the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnrichmentBenchmark {
+
+    @Param({"1000000"})
+    public int referenceRows;
+
+    @Param({"1000000"})
+    public int hotKeys;
+
+    @Param({"0", "1000"})
+    public int cacheSize;
+
+    private Path directory;
+    private String[] keys;
+    private EnrichingItemProcessor processor;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        directory = Files.createTempDirectory("enrichment-benchmark");
+        Path reference = directory.resolve("reference.csv");
+        keys = new String[Math.min(hotKeys, referenceRows)];
+        try (BufferedWriter writer = Files.newBufferedWriter(reference, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < referenceRows; i++) {
+                String key = "NAME" + i;
+                if (i < keys.length) {
+                    keys[i] = key;
+                }
+                writer.write(key + ",city-" + i % 1000 + ",tier-" + i % 5);
+                writer.newLine();
+            }
+        }
+        processor = new EnrichingItemProcessor(ReferenceIndex.open(reference, directory.resolve("reference.idx")),
+                "lastName");
+        processor.setCacheSize(cacheSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        CsvGenerator.delete(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        final Random random = new Random();
+    }
+
+    @Benchmark
+    public Person enrich(Keys state) {
+        return processor.process(new Person("FIRST", keys[state.random.nextInt(keys.length)]));
+    }
+}
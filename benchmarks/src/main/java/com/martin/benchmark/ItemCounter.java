@@ -0,0 +1,33 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the items handled by a benchmark as a rate alongside the operations, so a benchmark that reads a whole
+ * file per operation also shows items per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ItemCounter {
+
+    public long items;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        items = 0;
+    }
+}
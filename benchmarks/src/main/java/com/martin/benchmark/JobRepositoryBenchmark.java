@@ -0,0 +1,137 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.CoalescingJobRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The job repository's share of a chunk commit: each operation is the update of a partition's ExecutionContext and
+ * StepExecution a chunk makes in its transaction, with the context the FileCallbackHandler, reader and writer keep.
+ * Each benchmark thread is a partition of its own, e.g. -t 8 for eight partitions committing at once, and the
+ * repository mode is jdbc, the default, or coalescing with a flush interval of flushMillis.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobRepositoryBenchmark {
+
+    @Param({"jdbc", "coalescing"})
+    public String mode;
+
+    @Param({"1000"})
+    public long flushMillis;
+
+    private final AtomicLong run = new AtomicLong();
+    private EmbeddedDatabase database;
+    private JobRepository jobRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws Exception {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.HSQL)
+                .generateUniqueName(true)
+                .addScript("org/springframework/batch/core/schema-hsqldb.sql")
+                .build();
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(database);
+        JobRepositoryFactoryBean factory = new JobRepositoryFactoryBean();
+        factory.setDataSource(database);
+        factory.setTransactionManager(transactionManager);
+        factory.afterPropertiesSet();
+        jobRepository = mode.equals("coalescing")
+                ? new CoalescingJobRepository(factory.getObject(), flushMillis) : factory.getObject();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        database.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Partition {
+        StepExecution stepExecution;
+        long items;
+
+        @Setup(Level.Iteration)
+        public void start(JobRepositoryBenchmark benchmark) throws Exception {
+            JobExecution jobExecution = benchmark.jobRepository.createJobExecution("importUserJob",
+                    new JobParametersBuilder().addLong("run.id", benchmark.run.incrementAndGet()).toJobParameters());
+            stepExecution = jobExecution.createStepExecution("subStep:partition0");
+            stepExecution.setStartTime(new Date());
+            stepExecution.setStatus(BatchStatus.STARTED);
+            ExecutionContext context = stepExecution.getExecutionContext();
+            context.putString("inputFile", "/data/input/data-YJKO9or6vP81kTyvF1wJI.csv");
+            context.putString("outputFile", "data-YJKO9or6vP81kTyvF1wJI-out.csv");
+            context.putString("header", "email:someone@example.com");
+            context.putString("email", "someone@example.com");
+            benchmark.jobRepository.add(stepExecution);
+            benchmark.jobRepository.update(stepExecution);
+            items = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void complete(JobRepositoryBenchmark benchmark) {
+            stepExecution.setStatus(BatchStatus.COMPLETED);
+            benchmark.jobRepository.updateExecutionContext(stepExecution);
+            stepExecution.setEndTime(new Date());
+            benchmark.jobRepository.update(stepExecution);
+        }
+    }
+
+    @Benchmark
+    public void commitChunk(Partition partition) {
+        StepExecution stepExecution = partition.stepExecution;
+        partition.items += 100;
+        transactionTemplate.executeWithoutResult(status -> {
+            ExecutionContext context = stepExecution.getExecutionContext();
+            context.putLong("personItemReader.read.count", partition.items);
+            context.putLong("personItemWriter.current.count", partition.items * 25);
+            context.putLong("personItemWriter.written", partition.items);
+            jobRepository.updateExecutionContext(stepExecution);
+            stepExecution.setWriteCount((int) partition.items);
+            stepExecution.incrementCommitCount();
+            jobRepository.update(stepExecution);
+        });
+    }
+}
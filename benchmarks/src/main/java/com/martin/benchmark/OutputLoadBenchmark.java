@@ -0,0 +1,138 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.BatchConfiguration;
+import com.martin.ColumnarPersonReader;
+import com.martin.OutputFormat;
+import com.martin.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a whole output file per operation as a consumer of the output would, written in the trial setup by the
+ * personItemWriter as configured by the {@link BatchConfiguration}. A csv file is split into its fields, a columnar
+ * one is read with the {@link ColumnarPersonReader}. The names are drawn from a pool of distinctNames, so they repeat
+ * as real names do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputLoadBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"1000"})
+    public int chunkSize;
+
+    @Param({"1000"})
+    public int distinctNames;
+
+    @Param({"8"})
+    public int nameLength;
+
+    @Param({"csv", "columnar"})
+    public String outputFormat;
+
+    private final BatchConfiguration configuration = new BatchConfiguration();
+    private Path directory;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        Random random = new Random(rows);
+        char[] name = new char[nameLength];
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < distinctNames; i++) {
+            names.add(CsvGenerator.name(random, name).toUpperCase());
+        }
+
+        directory = Files.createTempDirectory("load-benchmark");
+        String filename = "data-bench-out" + OutputFormat.forName(outputFormat).getExtension();
+        file = directory.resolve(filename);
+        ItemStreamWriter<Person> writer = configuration.personItemWriter("email:someone@example.com", filename, null,
+                directory.toString(), "channel", "none", 1024 * 1024, false, "step", outputFormat, "",
+                configuration.personLineAggregator(""));
+        ExecutionContext context = new ExecutionContext();
+        writer.open(context);
+        List<Person> chunk = new ArrayList<>(chunkSize);
+        for (int i = 0; i < rows; i++) {
+            Person person = new Person(names.get(random.nextInt(distinctNames)),
+                    names.get(random.nextInt(distinctNames)));
+            person.setValue("Processed");
+            chunk.add(person);
+            if (chunk.size() == chunkSize || i == rows - 1) {
+                writer.write(chunk);
+                writer.update(context);
+                chunk.clear();
+            }
+        }
+        writer.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        CsvGenerator.delete(directory);
+    }
+
+    @Benchmark
+    public void load(ItemCounter counter, Blackhole blackhole) throws Exception {
+        if (OutputFormat.forName(outputFormat) == OutputFormat.COLUMNAR) {
+            try (ColumnarPersonReader reader = new ColumnarPersonReader(file)) {
+                Person person;
+                while ((person = reader.read()) != null) {
+                    blackhole.consume(person);
+                    counter.items++;
+                }
+            }
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            blackhole.consume(reader.readLine());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf(',');
+                int second = line.indexOf(',', first + 1);
+                Person person = new Person(line.substring(0, first), line.substring(first + 1, second));
+                person.setValue(line.substring(second + 1));
+                blackhole.consume(person);
+                counter.items++;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.Person;
+import com.martin.PersonItemProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes one Person per operation. The Person is created in the benchmark, as the reader would, so the copying
+ * and in place modes can be compared on both time and allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonItemProcessorBenchmark {
+
+    private static final int NAMES = 1024;
+
+    @Param({"8"})
+    public int nameLength;
+
+    @Param({"false", "true"})
+    public boolean inPlace;
+
+    private final PersonItemProcessor processor = new PersonItemProcessor();
+    private final String[] firstNames = new String[NAMES];
+    private final String[] lastNames = new String[NAMES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor.setInPlace(inPlace);
+        Random random = new Random(NAMES);
+        char[] name = new char[nameLength];
+        for (int i = 0; i < NAMES; i++) {
+            firstNames[i] = CsvGenerator.name(random, name);
+            lastNames[i] = CsvGenerator.name(random, name);
+        }
+    }
+
+    @Benchmark
+    public Person process() throws Exception {
+        int i = next++ & (NAMES - 1);
+        return processor.process(new Person(firstNames[i], lastNames[i]));
+    }
+}
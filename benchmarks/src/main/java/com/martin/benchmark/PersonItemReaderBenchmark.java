@@ -0,0 +1,92 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.BatchConfiguration;
+import com.martin.FileCallbackHandler;
+import com.martin.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamReader;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a whole synthetic file per operation with the personItemReader as configured by the {@link BatchConfiguration}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonItemReaderBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"8"})
+    public int nameLength;
+
+    @Param({"email:someone@example.com"})
+    public String header;
+
+    @Param({"mmap", "flat"})
+    public String readerType;
+
+    private final BatchConfiguration configuration = new BatchConfiguration();
+    private Path directory;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        directory = Files.createTempDirectory("reader-benchmark");
+        file = CsvGenerator.generate(directory.resolve("data-bench.csv"), rows, nameLength, header);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        CsvGenerator.delete(directory);
+    }
+
+    @Benchmark
+    public void read(ItemCounter counter, Blackhole blackhole) throws Exception {
+        FileCallbackHandler headerLineCallback = new FileCallbackHandler(directory.toString());
+        headerLineCallback.beforeStep(new StepExecution("subStep", new JobExecution(1L)));
+
+        ItemStreamReader<Person> reader = configuration.personItemReader(file.toString(), null, null, readerType,
+                headerLineCallback);
+        reader.open(new ExecutionContext());
+        Person person;
+        while ((person = reader.read()) != null) {
+            blackhole.consume(person);
+            counter.items++;
+        }
+        reader.close();
+    }
+}
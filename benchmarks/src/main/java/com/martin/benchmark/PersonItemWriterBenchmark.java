@@ -0,0 +1,118 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.BatchConfiguration;
+import com.martin.OutputFormat;
+import com.martin.Person;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes one chunk per operation with the personItemWriter as configured by the {@link BatchConfiguration}, the
+ * output file growing over an iteration as it does over a step. Each chunk ends with the update of the writer's
+ * state the step makes before it commits. Compression only applies to the channel writer, e.g.
+ * -p writerType=channel -p compression=gzip,zstd, and -p outputFormat=columnar replaces either writer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonItemWriterBenchmark {
+
+    @Param({"10", "1000"})
+    public int chunkSize;
+
+    @Param({"8"})
+    public int nameLength;
+
+    @Param({"email:someone@example.com"})
+    public String header;
+
+    @Param({"flat", "channel"})
+    public String writerType;
+
+    @Param({"none"})
+    public String compression;
+
+    @Param({"csv"})
+    public String outputFormat;
+
+    private final BatchConfiguration configuration = new BatchConfiguration();
+    private final List<Person> chunk = new ArrayList<>();
+    private Path directory;
+    private ItemStreamWriter<Person> writer;
+    private ExecutionContext context;
+    private String filename;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        Random random = new Random(chunkSize);
+        char[] name = new char[nameLength];
+        for (int i = 0; i < chunkSize; i++) {
+            Person person = new Person(CsvGenerator.name(random, name).toUpperCase(),
+                    CsvGenerator.name(random, name).toUpperCase());
+            person.setValue("Processed");
+            chunk.add(person);
+        }
+        directory = Files.createTempDirectory("writer-benchmark");
+        filename = "data-bench-out" + OutputFormat.forName(outputFormat).getExtension();
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws Exception {
+        Files.deleteIfExists(directory.resolve(filename));
+        writer = configuration.personItemWriter(header, filename, null, directory.toString(),
+                writerType, compression, 1024 * 1024, false, "step", outputFormat, "",
+                configuration.personLineAggregator(""));
+        context = new ExecutionContext();
+        writer.open(context);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        writer.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        CsvGenerator.delete(directory);
+    }
+
+    @Benchmark
+    public void write(ItemCounter counter) throws Exception {
+        writer.write(chunk);
+        writer.update(context);
+        counter.items += chunkSize;
+    }
+}
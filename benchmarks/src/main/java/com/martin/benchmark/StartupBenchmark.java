@@ -0,0 +1,154 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time a run of the application takes from starting its JVM, the run being of an empty input directory or of a
+ * single small file, the case where starting the application costs more than processing the files. Each operation is
+ * a JVM of its own running the jar built by mvn package, by default from the directory the benchmarks are run in,
+ * with the default or the fast profile and any jvmArgs, e.g. -XX:SharedArchiveFile=target/cds/app.jsa with the jar
+ * target/cds/parallel-file-processor-0.1.0-cds.jar to use a class data sharing archive.
+ * <p>
+ * total waits for the JVM to exit, firstItem only until the application logs that it has read its first item. An
+ * empty input has no first item, its firstItem is the time to the exit as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+    private static final String FIRST_ITEM = "First item read";
+
+    @Param({"empty", "single"})
+    public String input;
+
+    @Param({"default", "fast"})
+    public String profile;
+
+    @Param({"target/parallel-file-processor-0.1.0.jar"})
+    public String jar;
+
+    @Param({""})
+    public String jvmArgs;
+
+    @Param({"1000"})
+    public int rows;
+
+    private Path directory;
+    private List<String> command;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        if (!Files.isRegularFile(Paths.get(jar))) {
+            throw new IllegalStateException(jar + " not found, build the application with mvn package first");
+        }
+        directory = Files.createTempDirectory("startup-benchmark");
+        Path inputDir = Files.createDirectory(directory.resolve("input"));
+        Path outputDir = Files.createDirectory(directory.resolve("output"));
+        if (input.equals("single")) {
+            CsvGenerator.generate(inputDir.resolve("data-1.csv"), rows, 8, "email:someone@example.com");
+        }
+
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (!jvmArgs.isBlank()) {
+            command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+        }
+        command.add("-jar");
+        command.add(jar);
+        if (profile.equals("fast")) {
+            command.add("--spring.profiles.active=fast");
+        }
+        command.add("input.dir=" + inputDir);
+        command.add("output.dir=" + outputDir);
+        command.add("filename.pattern=data*.csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        CsvGenerator.delete(directory);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws Exception {
+        if (process != null) {
+            process.destroyForcibly();
+            process.waitFor();
+            process = null;
+        }
+    }
+
+    @Benchmark
+    public int total() throws Exception {
+        process = start();
+        try (BufferedReader output = output(process)) {
+            while (output.readLine() != null) {
+                /* drained so the JVM never waits on a full pipe */
+            }
+        }
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new IllegalStateException("The application exited with " + exitValue);
+        }
+        return exitValue;
+    }
+
+    @Benchmark
+    public boolean firstItem() throws Exception {
+        process = start();
+        try (BufferedReader output = output(process)) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.contains(FIRST_ITEM)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Process start() throws IOException {
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    private static BufferedReader output(Process process) {
+        return new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin.benchmark;
+
+import com.martin.BatchConfiguration;
+import com.martin.JobNotificationListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the masterStep over a directory holding a single synthetic file, so each operation is one complete subStep:
+ * reader, processor, writer, chunk transactions and the job repository updates. The Spring context is started once,
+ * without the Application runner, and each operation is a new job instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SubStepBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"8"})
+    public int nameLength;
+
+    @Param({"email:someone@example.com"})
+    public String header;
+
+    @Param({"10", "1000"})
+    public String commitInterval;
+
+    @Param({"serial", "pipelined"})
+    public String stepMode;
+
+    private ConfigurableApplicationContext context;
+    private JobLauncher jobLauncher;
+    private Job job;
+    private Path inputDirectory;
+    private Path outputDirectory;
+    private long run;
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @Import({BatchConfiguration.class, JobNotificationListener.class})
+    static class BenchmarkConfiguration {
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        inputDirectory = Files.createTempDirectory("substep-benchmark-in");
+        outputDirectory = Files.createTempDirectory("substep-benchmark-out");
+        CsvGenerator.generate(inputDirectory.resolve("data-bench.csv"), rows, nameLength, header);
+
+        context = new SpringApplicationBuilder(BenchmarkConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .run();
+        jobLauncher = context.getBean(JobLauncher.class);
+        /* just the masterStep, the importUserJob's listener shuts the task executor down when the job ends */
+        job = context.getBean(JobBuilderFactory.class).get("subStepBenchmark")
+                .start(context.getBean("masterStep", Step.class))
+                .build();
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteOutput() throws Exception {
+        Files.deleteIfExists(outputDirectory.resolve("data-bench-out.csv"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        context.close();
+        CsvGenerator.delete(inputDirectory);
+        CsvGenerator.delete(outputDirectory);
+    }
+
+    @Benchmark
+    public void subStep(ItemCounter counter) throws Exception {
+        JobExecution execution = jobLauncher.run(job, new JobParametersBuilder()
+                .addString("input.dir", inputDirectory.toString())
+                .addString("output.dir", outputDirectory.toString())
+                .addString("filename.pattern", "data-bench.csv")
+                .addString("commit.interval", commitInterval)
+                .addString("step.mode", stepMode)
+                .addLong("run.id", ++run)
+                .toJobParameters());
+        if (execution.getStatus() != BatchStatus.COMPLETED) {
+            throw new IllegalStateException("subStep " + execution.getStatus() + " " + execution.getAllFailureExceptions());
+        }
+        counter.items += rows;
+    }
+}
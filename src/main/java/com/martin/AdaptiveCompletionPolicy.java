@@ -0,0 +1,79 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chunk completion policy that sizes each chunk so that it takes about the target commit time. The time from the
+ * start of one chunk to the start of the next covers reading, processing, writing and the commit, so it is measured
+ * at the start of each chunk and the next chunk size is moved halfway towards the size that would have taken the
+ * target time, at most doubling, and kept within the bounds.
+ * <p>
+ * One per step, it keeps the measurements of the step's previous chunk.
+ */
+public class AdaptiveCompletionPolicy extends SimpleCompletionPolicy {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveCompletionPolicy.class);
+
+    private final long targetNanos;
+    private final int minChunkSize;
+    private final int maxChunkSize;
+
+    private long chunkStart;
+    private int chunkSize;
+
+    /**
+     * @param initialChunkSize the size of the first chunk
+     * @param targetMillis     the time each chunk should take, including its commit
+     * @param minChunkSize     the smallest chunk size
+     * @param maxChunkSize     the largest chunk size
+     */
+    public AdaptiveCompletionPolicy(int initialChunkSize, long targetMillis, int minChunkSize, int maxChunkSize) {
+        Assert.isTrue(minChunkSize > 0 && minChunkSize <= maxChunkSize,
+                "The chunk size bounds must be positive and min <= max");
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.chunkSize = clamp(initialChunkSize);
+        setChunkSize(chunkSize);
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext context) {
+        long now = System.nanoTime();
+        if (chunkStart != 0) {
+            adjust(now - chunkStart);
+        }
+        chunkStart = now;
+        return super.start(context);
+    }
+
+    private void adjust(long elapsedNanos) {
+        long ideal = elapsedNanos <= 0 ? maxChunkSize : chunkSize * targetNanos / elapsedNanos;
+        int next = clamp(Math.min((chunkSize + ideal) / 2, 2L * chunkSize));
+        if (next != chunkSize) {
+            log.debug("Chunk of {} took {}ms, next chunk size {}", chunkSize,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), next);
+            chunkSize = next;
+            setChunkSize(chunkSize);
+        }
+    }
+
+    private int clamp(long size) {
+        return (int) Math.max(minChunkSize, Math.min(maxChunkSize, size));
+    }
+}
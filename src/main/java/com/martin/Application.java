@@ -2,13 +2,16 @@ package com.martin;
 
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Lazy;
 
 @SpringBootApplication
 public class Application implements ApplicationRunner {
@@ -19,12 +22,36 @@ public class Application implements ApplicationRunner {
     @Autowired
     private Job job;
 
+    /* lazy, most runs need none of them, a proxy stands in for each until it is used */
+    @Autowired
+    @Lazy
+    private DirectoryWatcher directoryWatcher;
+
+    @Autowired
+    @Lazy
+    private PartitionWorker partitionWorker;
+
+    @Autowired
+    @Lazy
+    private JobServer jobServer;
+
+    @Value("${partition.manager:}")
+    private String partitionManager;
+
+    @Value("${partition.token:}")
+    private String partitionToken;
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
 
     @Override
     public void run(ApplicationArguments args) throws Exception {
+        if (!partitionManager.isEmpty()) {
+            /* a worker, it runs the partitions the manager sends it until the manager has finished */
+            partitionWorker.run(partitionManager, partitionToken);
+            return;
+        }
 
         JobParametersBuilder jobParametersBuilder = new JobParametersBuilder();
 
@@ -37,6 +64,18 @@ public class Application implements ApplicationRunner {
             jobParametersBuilder.addString(name, value);
         }
 
-        JobExecution execution = jobLauncher.run(job, jobParametersBuilder.toJobParameters());
+        JobParameters jobParameters = jobParametersBuilder.toJobParameters();
+        if ("true".equals(jobParameters.getString(DirectoryWatcher.WATCH_PARAMETER))) {
+            /* launches a job for each file that arrives, until the application is stopped */
+            directoryWatcher.watch(jobParameters);
+            return;
+        }
+        if ("true".equals(jobParameters.getString(JobServer.SERVE_PARAMETER))) {
+            /* launches the jobs submitted to it, until the application is stopped */
+            jobServer.serve(jobParameters);
+            return;
+        }
+
+        JobExecution execution = jobLauncher.run(job, jobParameters);
     }
 }
@@ -1,37 +1,84 @@
 package com.martin;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.partition.PartitionHandler;
 import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.integration.async.AsyncItemProcessor;
+import org.springframework.batch.integration.async.AsyncItemWriter;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.database.support.DefaultDataFieldMaxValueIncrementerFactory;
 import org.springframework.batch.item.file.FlatFileHeaderCallback;
 import org.springframework.batch.item.file.FlatFileItemReader;
-import org.springframework.batch.item.file.FlatFileItemWriter;
 import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
 import org.springframework.batch.item.file.builder.FlatFileItemWriterBuilder;
-import org.springframework.batch.item.file.mapping.BeanWrapperFieldSetMapper;
-import org.springframework.batch.item.file.transform.BeanWrapperFieldExtractor;
-import org.springframework.batch.item.file.transform.DelimitedLineAggregator;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.batch.item.support.AbstractItemStreamItemWriter;
+import org.springframework.batch.repeat.CompletionPolicy;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.batch.BasicBatchConfigurer;
+import org.springframework.boot.autoconfigure.batch.BatchDataSourceInitializer;
+import org.springframework.boot.autoconfigure.batch.BatchProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
+import javax.sql.DataSource;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableBatchProcessing
@@ -42,13 +89,16 @@ public class BatchConfiguration {
 	@Autowired
 	public StepBuilderFactory stepBuilderFactory;
 	@Autowired
-	private FlatFileItemReader<Person> personItemReader;
+	private AbstractItemCountingItemStreamItemReader<Person> personItemReader;
 	@Autowired
-	private FlatFileItemWriter<Person> personItemWriter;
+	private AbstractItemStreamItemWriter<Person> personItemWriter;
 
 
 	private static final Logger logger = LoggerFactory.getLogger(BatchConfiguration.class);
 
+	/* the encoding of the csv outputs, for the writers and for the sortTasklet that reads them back */
+	private static final Charset OUTPUT_CHARSET = Charset.defaultCharset();
+
 	/*
     This bean collects the files and passes then as Resources to the partitioner. The Partitioner
     is used in the MasterStep to invoke a sub-step in a new thread to process one file. Each step has its
@@ -57,49 +107,181 @@ public class BatchConfiguration {
 	@Bean("partitioner")
 	@StepScope
 	public CustomMultiResourcePartitioner partitioner(@Value("#{jobParameters['input.dir']}")String inputLocation,
-													  @Value("#{jobParameters['filename.pattern']}")String namePattern) {
+													  @Value("#{jobParameters['filename.pattern']}")String namePattern,
+													  @Value("#{jobParameters['split.threshold'] ?: '0'}")long splitThreshold,
+													  @Value("#{jobParameters['output.compression']}")String compression,
+													  @Value("#{jobParameters['output.format']}")String format,
+													  @Value("#{jobExecutionContext['changedInputs']}")List<String> changedInputs) {
 		CustomMultiResourcePartitioner partitioner
 				= new CustomMultiResourcePartitioner();
+		Resource[] resources = inputResources(inputLocation, namePattern);
+		if (changedInputs != null) {
+			/* an incremental run, only the inputs the ManifestScanTasklet found new or changed */
+			Set<String> changed = new HashSet<>(changedInputs);
+			resources = Arrays.stream(resources)
+					.filter(resource -> changed.contains(absolutePath(resource)))
+					.toArray(Resource[]::new);
+		}
+		partitioner.setResources(resources);
+		partitioner.setSplitThreshold(splitThreshold);
+		partitioner.setOutputFormat(OutputFormat.forName(format));
+		partitioner.setOutputExtension(Compression.forName(compression).getExtension());
+		return partitioner;
+	}
+
+	private Resource[] inputResources(String inputLocation, String namePattern) {
 		ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
-		Resource[] resources;
 		try {
-			resources = resolver.getResources("file://"+inputLocation+ File.separator+namePattern);
+			return resolver.getResources("file://"+inputLocation+ File.separator+namePattern);
 		} catch (IOException e) {
 			throw new RuntimeException("I/O problems when resolving"
 					+ " the input file pattern.", e);
 		}
-		partitioner.setResources(resources);
-		return partitioner;
 	}
 
+	private static String absolutePath(Resource resource) {
+		try {
+			return resource.getFile().toPath().toAbsolutePath().toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	One per step as it counts the items it converts in each chunk. processor.inplace=true transforms each Person
+	rather than a copy of it. With --enrich.file each Person is then given the attributes of its --enrich.key
+	(lastName) in that reference file, those of --enrich.cache (0) recently used keys kept on the heap. A key that is
+	not there is, as --enrich.miss says, kept without attributes (the default), given --enrich.default, filtered or
+	fails the step.
+	 */
 	@Bean
-	public PersonItemProcessor processor() {
-		return new PersonItemProcessor();
+	@StepScope
+	public PersonItemProcessor processor(@Value("#{jobParameters['processor.inplace'] ?: 'false'}")boolean inPlace,
+										 @Value("#{jobParameters['log.sample'] ?: '1000'}")int logSample,
+										 @Value("${enrich.file:}")String enrichFile,
+										 @Value("${enrich.key:lastName}")String enrichKey,
+										 @Value("${enrich.cache:0}")int cacheSize,
+										 @Value("${enrich.miss:keep}")String missPolicy,
+										 @Value("${enrich.default:}")String defaultAttributes,
+										 ObjectProvider<ReferenceIndex> referenceIndex,
+										 PartitionAggregator partitionAggregator) {
+		PersonItemProcessor processor = new PersonItemProcessor();
+		processor.setInPlace(inPlace);
+		processor.setLogSample(logSample);
+		List<ItemProcessor<Person, Person>> nextProcessors = new ArrayList<>();
+		if (!enrichFile.isEmpty()) {
+			EnrichingItemProcessor enrichingProcessor = new EnrichingItemProcessor(referenceIndex.getObject(), enrichKey);
+			enrichingProcessor.setCacheSize(cacheSize);
+			enrichingProcessor.setMissPolicy(EnrichingItemProcessor.MissPolicy.forName(missPolicy));
+			enrichingProcessor.setDefaultAttributes(defaultAttributes);
+			nextProcessors.add(enrichingProcessor);
+		}
+		if (partitionAggregator.isEnabled()) {
+			/* last, so it counts the items that are written */
+			nextProcessors.add(partitionAggregator);
+		}
+		processor.setNextProcessors(nextProcessors);
+		return processor;
+	}
+
+	/*
+	The index of the --enrich.file reference file, --enrich.index (the reference file's name plus .idx), built when
+	it is missing or out of date and memory mapped, one for every partition.
+	 */
+	@Bean
+	@Lazy
+	public ReferenceIndex referenceIndex(@Value("${enrich.file}")String enrichFile,
+										 @Value("${enrich.index:}")String indexFile) throws IOException {
+		return ReferenceIndex.open(Paths.get(enrichFile),
+				Paths.get(indexFile.isEmpty() ? enrichFile + ".idx" : indexFile));
 	}
 
 	@Bean
 	@StepScope
-	public FileCallbackHandler headerLineCallback(@Value("#{jobParameters['output.dir']}")String location){
-		return new FileCallbackHandler(location);
+	public FileCallbackHandler headerLineCallback(@Value("#{jobParameters['output.dir']}")String location,
+												  NotificationDispatcher notificationDispatcher){
+		return new FileCallbackHandler(location, notificationDispatcher);
+	}
+
+	/*
+	Sends the notifications that output files are ready on a thread of its own, one per recipient for the files that
+	become ready within notify.window.ms (1000) of each other, at most notify.batch (100) files at a time. A failed
+	notification is tried up to notify.attempts (3) times, notify.retry.ms (500) apart and doubling. notify.transport=log
+	(the default) logs them and file appends them to notify.file.
+	 */
+	@Bean
+	public NotificationDispatcher notificationDispatcher(@Value("${notify.transport:log}")String transportName,
+														 @Value("${notify.file:notifications.tsv}")String file,
+														 @Value("${notify.queue:10000}")int capacity,
+														 @Value("${notify.window.ms:1000}")long windowMillis,
+														 @Value("${notify.batch:100}")int batchSize,
+														 @Value("${notify.attempts:3}")int maxAttempts,
+														 @Value("${notify.retry.ms:500}")long retryDelayMillis) {
+		NotificationTransport transport;
+		switch (transportName) {
+			case "log":
+				transport = new LoggingNotificationTransport();
+				break;
+			case "file":
+				transport = new FileNotificationTransport(Paths.get(file));
+				break;
+			default:
+				throw new IllegalArgumentException("notify.transport must be log or file, not " + transportName);
+		}
+		return new NotificationDispatcher(transport, capacity, windowMillis, batchSize, maxAttempts, retryDelayMillis);
 	}
 
 	@Bean
-	public Job importUserJob(JobNotificationListener listener, Step initialStep, Step masterStep) {
+	public Job importUserJob(JobNotificationListener listener, MetricsFileReporter metricsFileReporter,
+							 Step initialStep, Step masterStep, Step mergeStep, Step summaryStep, Step sortStep,
+							 Step manifestStep) {
 		return jobBuilderFactory.get("importUserJob")
 				.incrementer(new RunIdIncrementer())
 				.listener(listener)
+				.listener(metricsFileReporter)
 				.start(initialStep)
 				.next(masterStep)
+				.next(mergeStep)
+				.next(summaryStep)
+				.next(sortStep)
+				.next(manifestStep)
 				.build();
 	}
 
 	@Bean
-	public Step initialStep(FileDeletingTasklet fileDeletingTasklet){
+	public Step initialStep(Tasklet initialTasklet){
 		return stepBuilderFactory.get("initialStep")
-				.tasklet(fileDeletingTasklet)
+				.tasklet(initialTasklet)
 				.build();
 	}
 
+	/*
+	Deletes the outputs of the previous run, or with incremental=true only those of inputs that are new, changed or
+	deleted since the run, recorded in a manifest in the output directory, so only those inputs are processed.
+	incremental.rebuild=true processes every input, starting a new manifest.
+	 */
+	@Bean
+	@StepScope
+	public Tasklet initialTasklet(@Value("#{jobParameters['input.dir']}")String inputLocation,
+								  @Value("#{jobParameters['output.dir']}")String location,
+								  @Value("#{jobParameters['filename.pattern']}")String namePattern,
+								  @Value("#{jobParameters['output.compression']}")String compression,
+								  @Value("#{jobParameters['output.format']}")String format,
+								  @Value("#{jobParameters['incremental'] ?: 'false'}")boolean incremental,
+								  @Value("#{jobParameters['incremental.rebuild'] ?: 'false'}")boolean rebuild,
+								  ThreadPoolTaskExecutor taskExecutor) {
+		if (!incremental) {
+			return fileDeletingTasklet(location, namePattern);
+		}
+		ManifestScanTasklet tasklet = new ManifestScanTasklet();
+		tasklet.setInputs(inputResources(inputLocation, namePattern));
+		tasklet.setOutputDirectory(location);
+		tasklet.setOutputFormat(OutputFormat.forName(format));
+		tasklet.setOutputExtension(Compression.forName(compression).getExtension());
+		tasklet.setRebuild(rebuild);
+		tasklet.setTaskExecutor(taskExecutor);
+		return tasklet;
+	}
 
 	@Bean
 	@StepScope
@@ -112,89 +294,632 @@ public class BatchConfiguration {
 		return tasklet;
 	}
 
+	/*
+	Large files split into byte ranges by the partitioner are written as numbered part files, this step stitches
+	them back together into the single output file.
+	 */
+	@Bean
+	public Step mergeStep(PartMergingTasklet partMergingTasklet){
+		return stepBuilderFactory.get("mergeStep")
+				.tasklet(partMergingTasklet)
+				.build();
+	}
+
+	@Bean
+	@StepScope
+	public PartMergingTasklet partMergingTasklet(@Value("#{jobParameters['output.dir']}")String location,
+												 @Value("#{jobParameters['filename.pattern']}")String namePattern,
+												 NotificationDispatcher notificationDispatcher) {
+
+		PartMergingTasklet tasklet = new PartMergingTasklet();
+		tasklet.setDirectoryResource(location, namePattern);
+		tasklet.setNotificationDispatcher(notificationDispatcher);
+
+		return tasklet;
+	}
+
+	/*
+	With aggregate=true each partition counts its items, the items of each last name and its distinct first names as
+	they pass, see the partitionAggregator, and this step merges the counts of every partition into aggregate.file
+	(summary.tsv) in the output directory.
+	 */
+	@Bean
+	public Step summaryStep(Tasklet summaryTasklet) {
+		return stepBuilderFactory.get("summaryStep")
+				.tasklet(summaryTasklet)
+				.build();
+	}
+
+	@Bean
+	@StepScope
+	public Tasklet summaryTasklet(@Value("#{jobParameters['aggregate'] ?: 'false'}")boolean aggregate,
+								  @Value("#{jobParameters['output.dir']}")String location,
+								  @Value("#{jobParameters['aggregate.file'] ?: 'summary.tsv'}")String summaryFile,
+								  JobExplorer jobExplorer) {
+		if (!aggregate) {
+			return (contribution, chunkContext) -> RepeatStatus.FINISHED;
+		}
+		SummaryTasklet tasklet = new SummaryTasklet();
+		tasklet.setJobExplorer(jobExplorer);
+		tasklet.setSummaryFile(Paths.get(location).resolve(summaryFile));
+		return tasklet;
+	}
+
+	/*
+	With sort=true the lines of all the outputs in the output directory are sorted by last name then first name into
+	sort.file (sorted.csv, plus the extension of any output.compression) in the output directory. The lines are sorted
+	sort.buffer.mb (64) at a time, spilling runs to sort.tmp.dir (java.io.tmpdir) that are merged sort.fanin (64) at a
+	time, so the outputs can be much larger than the heap.
+	 */
+	@Bean
+	public Step sortStep(Tasklet sortTasklet) {
+		return stepBuilderFactory.get("sortStep")
+				.tasklet(sortTasklet)
+				.build();
+	}
+
+	@Bean
+	@StepScope
+	public Tasklet sortTasklet(@Value("#{jobParameters['sort'] ?: 'false'}")boolean sort,
+							   @Value("#{jobParameters['output.dir']}")String location,
+							   @Value("#{jobParameters['filename.pattern']}")String namePattern,
+							   @Value("#{jobParameters['output.compression']}")String compression,
+							   @Value("#{jobParameters['sort.file'] ?: 'sorted.csv'}")String sortFile,
+							   @Value("#{jobParameters['sort.tmp.dir'] ?: systemProperties['java.io.tmpdir']}")String tempDirectory,
+							   @Value("#{jobParameters['sort.buffer.mb'] ?: '64'}")long bufferMegabytes,
+							   @Value("#{jobParameters['sort.fanin'] ?: '64'}")int fanIn) {
+		if (!sort) {
+			return (contribution, chunkContext) -> RepeatStatus.FINISHED;
+		}
+		ExternalSortTasklet tasklet = new ExternalSortTasklet();
+		tasklet.setDirectoryResource(location, namePattern);
+		tasklet.setCompression(Compression.forName(compression));
+		tasklet.setSortedFile(Paths.get(location).resolve(sortFile + Compression.forName(compression).getExtension()));
+		tasklet.setTempDirectory(Paths.get(tempDirectory));
+		tasklet.setBufferBytes(bufferMegabytes * 1024 * 1024);
+		tasklet.setFanIn(fanIn);
+		tasklet.setCharset(OUTPUT_CHARSET);
+		return tasklet;
+	}
+
+	/*
+	Makes the manifest of an incremental run the one the next run compares its inputs with, now every input the run
+	found changed has been processed.
+	 */
+	@Bean
+	public Step manifestStep(Tasklet manifestCommitTasklet) {
+		return stepBuilderFactory.get("manifestStep")
+				.tasklet(manifestCommitTasklet)
+				.build();
+	}
+
+	@Bean
+	@StepScope
+	public Tasklet manifestCommitTasklet(@Value("#{jobParameters['output.dir']}")String location) {
+		return (contribution, chunkContext) -> {
+			InputManifest.commit(Paths.get(location));
+			return RepeatStatus.FINISHED;
+		};
+	}
+
 	@Bean
 	@Qualifier("masterStep")
-	public Step masterStep(Step subStep, Partitioner partitioner) {
+	public Step masterStep(Step subStep, Partitioner partitioner, PartitionHandler partitionHandler) {
 		return stepBuilderFactory.get("masterStep")
 				.partitioner("subStep", partitioner)
 				.step(subStep)
-				.taskExecutor(taskExecutor())
+				.partitionHandler(partitionHandler)
 				.build();
 	}
+
+	/*
+	Runs the sub-steps on the taskExecutor. With schedule.longest.first=true the largest partitions are started first
+	and partition.concurrency caps how many run at once, idle threads taking the next partition from a shared queue.
+	partition.executor=virtual runs each partition on its own virtual thread instead, where the JDK has them, in which
+	case partition.concurrency defaults to the taskExecutor's size. partition.executor=process runs them in the worker
+	JVMs of the partitionWorkerPool, still at most partition.concurrency at once, so a served job keeps to its quota.
+	step.mode=pipelined runs each partition with the pipelinedSubStep.
+	 */
+	@Bean
+	@StepScope
+	public PartitionHandler partitionHandler(Step subStep, @Qualifier("pipelinedSubStep") Step pipelinedSubStep,
+											 ThreadPoolTaskExecutor taskExecutor, PartitionWorkerPool partitionWorkerPool,
+											 JobRepository jobRepository, ObjectProvider<ExecutorService> virtualThreadExecutor,
+											 @Value("#{jobParameters['step.mode'] ?: 'serial'}")String stepMode,
+											 @Value("#{jobParameters['schedule.longest.first'] ?: 'false'}")boolean longestFirst,
+											 @Value("#{jobParameters['partition.concurrency'] ?: '0'}")int concurrency,
+											 @Value("#{jobParameters['partition.executor'] ?: 'pool'}")String executor) {
+		if ("process".equals(executor)) {
+			ProcessPartitionHandler partitionHandler = new ProcessPartitionHandler(partitionWorkerPool, jobRepository);
+			partitionHandler.setGridSize(partitionWorkerPool.getWorkers());
+			partitionHandler.setLongestFirst(longestFirst);
+			partitionHandler.setConcurrency(concurrency);
+			return partitionHandler;
+		}
+		LongestFirstPartitionHandler partitionHandler = new LongestFirstPartitionHandler();
+		partitionHandler.setJobRepository(jobRepository);
+		partitionHandler.setStep("pipelined".equals(stepMode) ? pipelinedSubStep : subStep);
+		partitionHandler.setTaskExecutor(taskExecutor);
+		if ("virtual".equals(executor)) {
+			ExecutorService virtualThreads = virtualThreadExecutor.getIfAvailable();
+			if (virtualThreads != null) {
+				partitionHandler.setTaskExecutor(new TaskExecutorAdapter(virtualThreads));
+				if (concurrency <= 0) {
+					concurrency = taskExecutor.getMaxPoolSize();
+				}
+			} else {
+				logger.warn("Virtual threads need a newer JDK than {}, using the taskExecutor",
+						System.getProperty("java.version"));
+			}
+		}
+		/* the most byte ranges a large file is split into */
+		partitionHandler.setGridSize(taskExecutor.getMaxPoolSize());
+		partitionHandler.setLongestFirst(longestFirst);
+		partitionHandler.setConcurrency(concurrency);
+		return partitionHandler;
+	}
+
+	/*
+	The executor of partition.executor=virtual, created the first time a job asks for it and shared by every job after,
+	shut down with the context. Null where the JDK has no virtual threads.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	@Lazy
+	public ExecutorService virtualThreadExecutor() {
+		return VirtualThreads.perTaskExecutor();
+	}
+
 	@Bean
 	@Qualifier("subStep")
-	public Step subStep(FileCallbackHandler headerLineCallback) {
+	public Step subStep(FileCallbackHandler headerLineCallback, PersonItemProcessor processor,
+						CompletionPolicy completionPolicy, PartitionMetricsListener partitionMetricsListener,
+						PartitionAggregator partitionAggregator) {
 
 		return stepBuilderFactory.get("subStep")
-				.<Person, Person>chunk(10)
+				.<Person, Person>chunk(completionPolicy)
 				.reader(personItemReader)
-				.processor(processor())
+				.processor(processor)
 				.writer(personItemWriter)
 				.listener(headerLineCallback)
+				.listener((StepExecutionListener) partitionMetricsListener)
+				.listener((ChunkListener) partitionMetricsListener)
+				.listener((ItemReadListener<Person>) partitionMetricsListener)
+				.listener((ItemProcessListener<Person, Person>) partitionMetricsListener)
+				.listener((ItemWriteListener<Person>) partitionMetricsListener)
+				.listener((StepExecutionListener) partitionAggregator)
 				.build();
 	}
 
+	/*
+	The subStep with its stages overlapped: a thread per partition reads ahead into a buffer of pipeline.buffer items,
+	the items of each chunk are processed in parallel on the pipelineExecutor and written, in the order they were
+	read, once all of the chunk is processed. The read count saved for restart is of the items the step has taken from
+	the buffer. Processing time is not recorded in the metrics as it is no longer on the step's thread.
+	 */
 	@Bean
-	public ThreadPoolTaskExecutor taskExecutor() {
+	@Qualifier("pipelinedSubStep")
+	public Step pipelinedSubStep(FileCallbackHandler headerLineCallback, PersonItemProcessor processor,
+								 CompletionPolicy completionPolicy, PartitionMetricsListener partitionMetricsListener,
+								 PrefetchingItemReader<Person> prefetchingPersonItemReader,
+								 ThreadPoolTaskExecutor pipelineExecutor, PartitionAggregator partitionAggregator) {
+		AsyncItemProcessor<Person, Person> asyncProcessor = new AsyncItemProcessor<>();
+		asyncProcessor.setDelegate(processor);
+		asyncProcessor.setTaskExecutor(pipelineExecutor);
+		AsyncItemWriter<Person> asyncWriter = new AsyncItemWriter<>();
+		asyncWriter.setDelegate(personItemWriter);
+		PartitionMetricsListener.FutureItemListener futureMetricsListener =
+				new PartitionMetricsListener.FutureItemListener(partitionMetricsListener);
+
+		return stepBuilderFactory.get("pipelinedSubStep")
+				.<Person, Future<Person>>chunk(completionPolicy)
+				.reader(prefetchingPersonItemReader)
+				.processor(asyncProcessor)
+				.writer(asyncWriter)
+				.listener(headerLineCallback)
+				.listener((ChunkListener) processor)
+				.listener((StepExecutionListener) futureMetricsListener)
+				.listener((ChunkListener) futureMetricsListener)
+				.listener((ItemReadListener<Person>) futureMetricsListener)
+				.listener((StepExecutionListener) partitionAggregator)
+				.build();
+	}
+
+	@Bean
+	@StepScope
+	public PrefetchingItemReader<Person> prefetchingPersonItemReader(@Value("#{jobParameters['pipeline.buffer'] ?: '1000'}")int capacity) {
+		PrefetchingItemReader<Person> reader = new PrefetchingItemReader<>(personItemReader);
+		reader.setName("personItemReader");
+		reader.setCapacity(capacity);
+		return reader;
+	}
+
+	/*
+	The metrics are kept in the global Micrometer registry, where Spring Batch also records its own, and published
+	in the Prometheus format. metrics.file=/path/metrics.prom writes them to the file every metrics.interval.ms
+	(10000) while the job runs.
+	 */
+	@Bean
+	public PrometheusMeterRegistry prometheusMeterRegistry() {
+		PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+		Metrics.addRegistry(registry);
+		return registry;
+	}
+
+	@Bean
+	public MetricsFileReporter metricsFileReporter(PrometheusMeterRegistry prometheusMeterRegistry) {
+		return new MetricsFileReporter(prometheusMeterRegistry);
+	}
+
+	/*
+	Counts the items of a partition for the summaryStep when aggregate=true, spilling the counts to the .aggregate
+	directory of the output directory when the partition completes.
+	 */
+	@Bean
+	@StepScope
+	public PartitionAggregator partitionAggregator(@Value("#{jobParameters['aggregate'] ?: 'false'}")boolean aggregate,
+												   @Value("#{jobParameters['output.dir']}")String location) {
+		return new PartitionAggregator(aggregate, location);
+	}
+
+	@Bean
+	@StepScope
+	public PartitionMetricsListener partitionMetricsListener(@Value("#{jobParameters['metrics.file']}")String metricsFile,
+															 MetricsFileReporter metricsFileReporter) {
+		return new PartitionMetricsListener(metricsFile != null, metricsFileReporter);
+	}
+
+	/*
+	Each chunk is a transaction, a flush of the output file and an update of the step's context in the job
+	repository. commit.interval sets the number of items in a chunk, 10 by default. With commit.adaptive=true it is
+	only the first chunk's size, the size of later chunks is adjusted so each takes about commit.target.ms,
+	between commit.min and commit.max items.
+	 */
+	@Bean
+	@StepScope
+	public CompletionPolicy completionPolicy(@Value("#{jobParameters['commit.interval'] ?: '10'}")int commitInterval,
+											 @Value("#{jobParameters['commit.adaptive'] ?: 'false'}")boolean adaptive,
+											 @Value("#{jobParameters['commit.target.ms'] ?: '1000'}")long targetMillis,
+											 @Value("#{jobParameters['commit.min'] ?: '10'}")int minChunkSize,
+											 @Value("#{jobParameters['commit.max'] ?: '100000'}")int maxChunkSize) {
+		if (adaptive) {
+			return new AdaptiveCompletionPolicy(commitInterval, targetMillis, minChunkSize, maxChunkSize);
+		}
+		return new SimpleCompletionPolicy(commitInterval);
+	}
+
+	/*
+	One thread per available processor unless the partition.threads property says otherwise, e.g.
+	--partition.threads=32. A full executor makes the partition handler wait rather than rejecting the partition.
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor taskExecutor(@Value("${partition.threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")int threads) {
 		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
-		taskExecutor.setMaxPoolSize(10);
-		taskExecutor.setCorePoolSize(10);
-		taskExecutor.setQueueCapacity(10);
+		taskExecutor.setMaxPoolSize(threads);
+		taskExecutor.setCorePoolSize(threads);
+		taskExecutor.setQueueCapacity(threads);
+		taskExecutor.setRejectedExecutionHandler(new BlockingSubmissionPolicy("taskExecutor"));
 		taskExecutor.afterPropertiesSet();
 		return taskExecutor;
 	}
 
+	/*
+	Processes the items of pipelined partitions, one thread per available processor unless the pipeline.threads
+	property says otherwise. A partition that finds it busy processes the item itself.
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor pipelineExecutor(@Value("${pipeline.threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")int threads) {
+		ThreadPoolTaskExecutor pipelineExecutor = new ThreadPoolTaskExecutor();
+		pipelineExecutor.setMaxPoolSize(threads);
+		pipelineExecutor.setCorePoolSize(threads);
+		pipelineExecutor.setQueueCapacity(threads * 100);
+		pipelineExecutor.setThreadNamePrefix("pipeline-");
+		pipelineExecutor.setDaemon(true);
+		pipelineExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		return pipelineExecutor;
+	}
+
+	/*
+	The worker JVMs of partition.executor=process, started when the first partition is run: --partition.workers, one
+	per available processor by default, each started with --partition.worker.jvm options, e.g. "-Xmx1g -XX:+UseZGC".
+	The workers connect to --partition.manager.address (127.0.0.1) on --partition.manager.port (any free one).
+	--partition.worker.spawn=false waits for workers started by hand, on any host, with --partition.manager=host:port and
+	the manager's --partition.token, instead.
+	 */
+	@Bean
+	public PartitionWorkerPool partitionWorkerPool(ApplicationArguments applicationArguments,
+												   @Value("${partition.workers:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")int workers,
+												   @Value("${partition.manager.address:127.0.0.1}")String address,
+												   @Value("${partition.manager.port:0}")int port,
+												   @Value("${partition.token:}")String token,
+												   @Value("${partition.worker.spawn:true}")boolean spawn,
+												   @Value("${partition.worker.jvm:}")String jvmOptions,
+												   @Value("${partition.worker.timeout.ms:60000}")long timeoutMillis) throws IOException {
+		PartitionWorkerPool pool = new PartitionWorkerPool(workers, address, port, token);
+		pool.setSpawn(spawn);
+		pool.setJvmOptions(Arrays.asList(StringUtils.tokenizeToStringArray(jvmOptions, " ")));
+		pool.setApplicationArguments(Arrays.asList(applicationArguments.getSourceArgs()));
+		pool.setTimeoutMillis(timeoutMillis);
+		return pool;
+	}
+
+	/*
+	Runs the partitions sent by a manager when the application is started with --partition.manager=host:port, trying
+	to connect for up to --partition.worker.timeout.ms (60000) as the manager only listens once it has partitions to run.
+	 */
+	@Bean
+	public PartitionWorker partitionWorker(BatchConfigurer batchConfigurer, Step subStep,
+										   @Qualifier("pipelinedSubStep") Step pipelinedSubStep,
+										   NotificationDispatcher notificationDispatcher,
+										   @Value("${partition.worker.timeout.ms:60000}")long timeoutMillis) throws Exception {
+		JobRepository jobRepository = batchConfigurer.getJobRepository();
+		PartitionWorker partitionWorker = new PartitionWorker(jobRepository, subStep, pipelinedSubStep,
+				notificationDispatcher);
+		partitionWorker.setConnectTimeoutMillis(timeoutMillis);
+		if (jobRepository instanceof PartitionWorker.CheckpointingJobRepository) {
+			((PartitionWorker.CheckpointingJobRepository) jobRepository).setWorker(partitionWorker);
+		}
+		return partitionWorker;
+	}
+
+	/*
+	With watch=true a job is launched for each input file as it arrives. The jobs are launched on threads of their
+	own, at most watch.jobs (one per available processor) at once, their partitions sharing the taskExecutor.
+	 */
+	@Bean
+	public DirectoryWatcher directoryWatcher(JobRepository jobRepository, Job importUserJob,
+											 @Value("${watch.jobs:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")int jobs) throws Exception {
+		SimpleAsyncTaskExecutor jobExecutor = new SimpleAsyncTaskExecutor("job-");
+		jobExecutor.setConcurrencyLimit(jobs);
+		SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
+		jobLauncher.setJobRepository(jobRepository);
+		jobLauncher.setTaskExecutor(jobExecutor);
+		jobLauncher.afterPropertiesSet();
+		return new DirectoryWatcher(jobLauncher, importUserJob);
+	}
+
+	/*
+	With serve=true jobs are submitted over HTTP to a JobServer rather than launched as the application starts. Like
+	the watcher's, the jobs are launched on threads of their own, at most serve.jobs (one per available processor) at
+	once and the rest queued, their partitions sharing the taskExecutor. Unless the server is started with a
+	serve.concurrency, each job's quota of partitions at once is an equal share of the taskExecutor's threads.
+	 */
+	@Bean
+	public JobServer jobServer(JobRepository jobRepository, Job importUserJob, JobExplorer jobExplorer,
+							   ThreadPoolTaskExecutor taskExecutor,
+							   @Value("${serve.jobs:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")int jobs) throws Exception {
+		ThreadPoolTaskExecutor jobExecutor = new ThreadPoolTaskExecutor();
+		jobExecutor.setCorePoolSize(jobs);
+		jobExecutor.setMaxPoolSize(jobs);
+		jobExecutor.setThreadNamePrefix("job-");
+		jobExecutor.setDaemon(true);
+		jobExecutor.initialize();
+		SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
+		jobLauncher.setJobRepository(jobRepository);
+		jobLauncher.setTaskExecutor(jobExecutor);
+		jobLauncher.afterPropertiesSet();
+		return new JobServer(jobLauncher, importUserJob, jobExplorer, Math.max(1, taskExecutor.getMaxPoolSize() / jobs));
+	}
+
+	/*
+	Spring Boot's configuration of the JobRepository, BasicBatchConfigurer, which --repository.mode=coalescing
+	wraps so each running partition persists its ExecutionContext and StepExecution at most once every
+	repository.flush.ms (1000) rather than at every chunk commit. The repository's schema is created, if it is to be,
+	as the repository is, so with the lazy initialisation of the fast profile it is left until a job is launched.
+	 */
+	@Bean
+	public BatchConfigurer batchConfigurer(BatchProperties properties, DataSource dataSource,
+										   ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers,
+										   ObjectProvider<BatchDataSourceInitializer> batchDataSourceInitializer,
+										   @Value("${repository.mode:jdbc}")String mode,
+										   @Value("${repository.flush.ms:1000}")long flushInterval,
+										   @Value("${partition.manager:}")String partitionManager) {
+		Assert.isTrue(mode.equals("jdbc") || mode.equals("coalescing"),
+				"repository.mode must be jdbc or coalescing, not " + mode);
+		return new BasicBatchConfigurer(properties, dataSource, transactionManagerCustomizers.getIfAvailable()) {
+			@Override
+			protected JobRepository createJobRepository() throws Exception {
+				/* nothing else refers to the initializer, a lazily initialised context would never create it */
+				batchDataSourceInitializer.getIfAvailable();
+				JobRepositoryFactoryBean factory = new JobRepositoryFactoryBean();
+				factory.setDataSource(dataSource);
+				factory.setTransactionManager(getTransactionManager());
+				if (StringUtils.hasText(properties.getTablePrefix())) {
+					factory.setTablePrefix(properties.getTablePrefix());
+				}
+				/* ids are taken from the sequence tables on connections of their own, committed at once, rather than
+				in the transaction of the caller, which holding the incrementer's lock and waiting on the rows of another
+				job's transaction, waiting in turn for the lock, deadlocks jobs that run at the same time */
+				factory.setIncrementerFactory(new DefaultDataFieldMaxValueIncrementerFactory(
+						new DelegatingDataSource(dataSource)));
+				factory.afterPropertiesSet();
+				JobRepository jobRepository = factory.getObject();
+				if (mode.equals("coalescing")) {
+					logger.info("Persisting the state of running steps at most every {}ms", flushInterval);
+					jobRepository = new CoalescingJobRepository(jobRepository, flushInterval);
+				}
+				if (!partitionManager.isEmpty()) {
+					/* a partition worker, the state of each chunk is sent to the manager */
+					jobRepository = new PartitionWorker.CheckpointingJobRepository(jobRepository);
+				}
+				return jobRepository;
+			}
+		};
+	}
+
+	/*
+	Active threads, queue depth, pool size and completed tasks of the taskExecutor, bound once the container has
+	initialised it, as that replaces the ThreadPoolExecutor created above.
+	 */
+	@Bean
+	public ExecutorServiceMetrics taskExecutorMetrics(ThreadPoolTaskExecutor taskExecutor) {
+		ExecutorServiceMetrics metrics = new ExecutorServiceMetrics(taskExecutor.getThreadPoolExecutor(),
+				"taskExecutor", Tags.empty());
+		metrics.bindTo(Metrics.globalRegistry);
+		return metrics;
+	}
+
+	/*
+	The fast profile initialises beans lazily, as they are first used. Nothing uses the taskExecutorMetrics, they
+	bind the metrics as they are created, so they are created as the context starts all the same.
+	 */
+	@Bean
+	public static LazyInitializationExcludeFilter eagerMetrics() {
+		return LazyInitializationExcludeFilter.forBeanTypes(ExecutorServiceMetrics.class);
+	}
+
 	@Bean
 	@StepScope
 	@Qualifier("personItemReader")
 	@DependsOn("partitioner")
-	public FlatFileItemReader<Person> personItemReader(@Value("#{stepExecutionContext[inputFile]}") String filename,
-													   FileCallbackHandler headerLineCallback) {
+	public AbstractItemCountingItemStreamItemReader<Person> personItemReader(@Value("#{stepExecutionContext[inputFile]}") String filename,
+																			 @Value("#{stepExecutionContext[startOffset]}") Long startOffset,
+																			 @Value("#{stepExecutionContext[endOffset]}") Long endOffset,
+																			 @Value("#{jobParameters['reader.type'] ?: 'mmap'}") String readerType,
+																			 FileCallbackHandler headerLineCallback) {
 		/* the input filename is placed in the stepExecutionContext by the partitioner as it locates the input files
 		and passed them to a new instance of this step
 		 */
 
-		return new FlatFileItemReaderBuilder<Person>()
+		/* a compressed file cannot be mapped, it is decompressed on a thread of its own as it is read */
+		if ("flat".equals(readerType) || Compression.forFilename(filename) != Compression.NONE) {
+			return flatPersonItemReader(filename, startOffset, endOffset, headerLineCallback);
+		}
+
+		/* maps the file and reads the fields straight from the bytes, see MappedPersonItemReader */
+		MappedPersonItemReader reader = new MappedPersonItemReader();
+		reader.setName("personItemReader");
+		reader.setResource(new FileSystemResource(filename));
+		if (startOffset != null) {
+			/* a byte range of a large file, the partitioner has already read the header from the first line */
+			reader.setRange(startOffset, endOffset);
+		} else {
+			reader.setLinesToSkip(1);
+			reader.setSkippedLinesCallback(headerLineCallback);
+		}
+		return reader;
+	}
+
+	/*
+	The original FlatFileItemReader, selected by reader.type=flat, and the reader of .gz and .zst files
+	 */
+	private FlatFileItemReader<Person> flatPersonItemReader(String filename, Long startOffset, Long endOffset,
+															 FileCallbackHandler headerLineCallback) {
+		FlatFileItemReaderBuilder<Person> builder = new FlatFileItemReaderBuilder<Person>()
 				.name("personItemReader")
 				.resource(new FileSystemResource(filename))
 				.delimited()
 				.names("firstName", "lastName")
-				.fieldSetMapper(new BeanWrapperFieldSetMapper<Person>() {{
-					setTargetType(Person.class);
-				}})
+				.fieldSetMapper(personFieldSetMapper());
+
+		if (startOffset != null) {
+			return builder
+					.bufferedReaderFactory(new ByteRangeBufferedReaderFactory(startOffset, endOffset))
+					.build();
+		}
+		if (Compression.forFilename(filename) != Compression.NONE) {
+			builder.bufferedReaderFactory(new DecompressingBufferedReaderFactory());
+		}
+
+		return builder
 				.linesToSkip(1)
 				.skippedLinesCallback(headerLineCallback)
 				.build();
 	}
 
+	/*
+	Writes through a FileChannel and a buffer of output.buffer bytes (1MB), allocated outside the heap with
+	output.direct=true. output.force=step (the default) forces the file to the storage device at the end of the step,
+	output.force=chunk after every chunk and output.force=N every N chunks. output.compression=gzip or zstd compresses
+	the output, adding .gz or .zst to its name. writer.type=flat writes with the FlatFileItemWriter instead.
+	output.format=columnar writes x-out.pcol files of dictionary encoded columns, one block per chunk, for the
+	consumers to load with the ColumnarPersonReader rather than parse.
+	 */
 	@Bean
 	@StepScope
 	@Qualifier("personItemWriter")
 	@DependsOn("partitioner")
-	public FlatFileItemWriter<Person> personItemWriter(@Value("#{stepExecutionContext[header]}") String header,
-													   @Value("#{stepExecutionContext[outputFile]}") String filename,
-													   @Value("#{jobParameters['output.dir']}")String location) {
-
-		return new FlatFileItemWriterBuilder<Person>()
-				.name("personItemWriter")
-				.resource(new FileSystemResource(location + File.separator+ filename))
-				.append(true)
-				.headerCallback(outputHeaderCallback(header))
-				.lineAggregator(new DelimitedLineAggregator<Person>() {
-					/*
-                    Gets passed an object, in this case a Person object and the LineAggregator extracts the attribute listed
-                    in the setNames below (by calling the getters by means of the BeanWrapperFieldExtractor), aggregates the
-                    values, separated by comma, the delimiter, and the FileWriter writes the line to the output file.
-                     */
-					{
-						setDelimiter(",");
-						setFieldExtractor(new BeanWrapperFieldExtractor<Person>() {
-							{
-								setNames(new String[]{"firstName", "lastName", "value"});
-							}
-						});
-					}
-				}).build();
+	public AbstractItemStreamItemWriter<Person> personItemWriter(@Value("#{stepExecutionContext[header]}") String header,
+																 @Value("#{stepExecutionContext[outputFile]}") String filename,
+																 @Value("#{stepExecutionContext[partIndex]}") Integer partIndex,
+																 @Value("#{jobParameters['output.dir']}")String location,
+																 @Value("#{jobParameters['writer.type'] ?: 'channel'}")String writerType,
+																 @Value("#{jobParameters['output.compression']}")String compression,
+																 @Value("#{jobParameters['output.buffer'] ?: '1048576'}")int bufferSize,
+																 @Value("#{jobParameters['output.direct'] ?: 'false'}")boolean direct,
+																 @Value("#{jobParameters['output.force'] ?: 'step'}")String force,
+																 @Value("#{jobParameters['output.format']}")String format,
+																 @Value("${enrich.file:}")String enrichFile,
+																 PersonLineAggregator personLineAggregator) {
+
+		/* only the first byte range of a split file writes the header, the parts are concatenated later */
+		boolean writeHeader = partIndex == null || partIndex == 0;
+		Resource resource = new FileSystemResource(location + File.separator + filename);
+
+		if (OutputFormat.forName(format) == OutputFormat.COLUMNAR) {
+			Assert.isTrue(Compression.forName(compression) == Compression.NONE,
+					"output.compression needs output.format=csv");
+			ColumnarPersonItemWriter writer = new ColumnarPersonItemWriter();
+			writer.setName("personItemWriter");
+			writer.setResource(resource);
+			writer.setAppend(true);
+			writer.setHeader(writeHeader ? header : null);
+			writer.setNames(outputNames(enrichFile));
+			return writer;
+		}
+
+		if ("flat".equals(writerType)) {
+			Assert.isTrue(Compression.forName(compression) == Compression.NONE,
+					"output.compression needs the default writer.type");
+			return new FlatFileItemWriterBuilder<Person>()
+					.name("personItemWriter")
+					.resource(resource)
+					.append(true)
+					.encoding(OUTPUT_CHARSET.name())
+					.headerCallback(writeHeader ? outputHeaderCallback(header) : null)
+					.lineAggregator(personLineAggregator)
+					.build();
+		}
+
+		FileChannelItemWriter<Person> writer = new FileChannelItemWriter<>();
+		writer.setName("personItemWriter");
+		writer.setResource(resource);
+		writer.setAppend(true);
+		writer.setHeaderCallback(writeHeader ? outputHeaderCallback(header) : null);
+		writer.setLineAggregator(personLineAggregator);
+		writer.setCharset(OUTPUT_CHARSET);
+		writer.setBufferSize(bufferSize);
+		writer.setDirect(direct);
+		writer.setForceInterval("step".equals(force) ? 0 : "chunk".equals(force) ? 1 : Integer.parseInt(force));
+		writer.setCompression(Compression.forName(compression));
+		return writer;
+	}
+
+	/*
+	Sets the attributes of a new Person from the fields the tokenizer splits the line into, calling the setters
+	directly rather than by means of a BeanWrapper.
+	 */
+	@Bean
+	public PersonFieldSetMapper personFieldSetMapper() {
+		return new PersonFieldSetMapper("firstName", "lastName");
+	}
+
+	/*
+	Gets passed an object, in this case a Person object and the LineAggregator extracts the attribute listed
+	below (by calling the getters directly), aggregates the values, separated by comma, the delimiter, and the
+	FileWriter writes the line to the output file. It reuses its buffer so there is one per step. Enriched Persons
+	have their attributes too.
+	 */
+	@Bean
+	@StepScope
+	public PersonLineAggregator personLineAggregator(@Value("${enrich.file:}")String enrichFile) {
+		PersonLineAggregator aggregator = new PersonLineAggregator(outputNames(enrichFile));
+		aggregator.setDelimiter(",");
+		return aggregator;
+	}
+
+	private static String[] outputNames(String enrichFile) {
+		return enrichFile.isEmpty() ? new String[]{"firstName", "lastName", "value"}
+				: new String[]{"firstName", "lastName", "value", "attributes"};
 	}
 
 	public FlatFileHeaderCallback outputHeaderCallback(String header) {
@@ -0,0 +1,48 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Makes the submitting thread wait for space in the queue of a full executor rather than rejecting the task, so more
+ * partitions than threads plus queue capacity are run, not failed. Only a shut down executor rejects tasks.
+ */
+public class BlockingSubmissionPolicy implements RejectedExecutionHandler {
+
+    private final Counter blocked;
+    private final Counter rejected;
+
+    public BlockingSubmissionPolicy(String executorName) {
+        this.blocked = Metrics.counter("executor.blocked", "name", executorName);
+        this.rejected = Metrics.counter("executor.rejected", "name", executorName);
+    }
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+        if (!executor.isShutdown()) {
+            blocked.increment();
+            try {
+                executor.getQueue().put(runnable);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        rejected.increment();
+        throw new RejectedExecutionException("Task " + runnable + " rejected from " + executor);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.item.file.BufferedReaderFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Creates a {@link BufferedReader} over a byte range of a file so a {@link org.springframework.batch.item.file.FlatFileItemReader}
+ * reads only the lines of its partition. The range must start at the beginning of a line and end just after a newline,
+ * as the ranges created by the {@link CustomMultiResourcePartitioner} do.
+ */
+public class ByteRangeBufferedReaderFactory implements BufferedReaderFactory {
+
+    private final long start;
+    private final long end;
+
+    public ByteRangeBufferedReaderFactory(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public BufferedReader create(Resource resource, String encoding) throws IOException {
+        FileChannel channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ);
+        channel.position(start);
+        return new BufferedReader(new InputStreamReader(
+                new RangeInputStream(Channels.newInputStream(channel), end - start), encoding));
+    }
+
+    /**
+     * Stops reading after a fixed number of bytes.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
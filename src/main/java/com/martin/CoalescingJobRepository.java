@@ -0,0 +1,88 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link JobRepository} that coalesces the updates a running step makes at the end of every chunk. A chunk's
+ * {@link org.springframework.batch.item.ExecutionContext} and {@link StepExecution} are persisted only when the step
+ * last persisted them at least the flush interval ago, the updates of the chunks in between are dropped. Everything
+ * else, including every update of a step that is no longer running, goes straight to the delegate so a step always
+ * ends with its final state saved.
+ * <p>
+ * The context saved is always that of a committed chunk, the reader's count and the writer's position from the same
+ * chunk, only an older one. A restart after a crash resumes from that chunk: the writer truncates its output back to
+ * the saved position and the reader reads the chunks after it again, so the output is the same as before, at the cost
+ * of redoing up to the flush interval of work. A failed or stopped step saves its last committed chunk as it ends.
+ */
+public class CoalescingJobRepository extends DelegatingJobRepository {
+
+    private final long flushIntervalNanos;
+
+    /* the time each running step execution's context was last persisted, by id */
+    private final Map<Long, Long> lastFlush = new ConcurrentHashMap<>();
+    /* the step executions whose context has just been persisted so the update that follows it is too */
+    private final Map<Long, Boolean> flushing = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate      the repository that persists the updates
+     * @param flushInterval the least time, in milliseconds, between the persisted updates of a running step
+     */
+    public CoalescingJobRepository(JobRepository delegate, long flushInterval) {
+        super(delegate);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+    }
+
+    /**
+     * The step persists its context and then the StepExecution at the end of each chunk, the pair is written or
+     * dropped together.
+     */
+    @Override
+    public void updateExecutionContext(StepExecution stepExecution) {
+        Long id = stepExecution.getId();
+        if (!isRunning(stepExecution) || id == null) {
+            delegate.updateExecutionContext(stepExecution);
+            return;
+        }
+        long now = System.nanoTime();
+        Long last = lastFlush.putIfAbsent(id, now);
+        if (last == null || now - last >= flushIntervalNanos) {
+            lastFlush.put(id, now);
+            flushing.put(id, Boolean.TRUE);
+            delegate.updateExecutionContext(stepExecution);
+        }
+    }
+
+    @Override
+    public void update(StepExecution stepExecution) {
+        Long id = stepExecution.getId();
+        if (!isRunning(stepExecution) || id == null) {
+            if (id != null) {
+                lastFlush.remove(id);
+                flushing.remove(id);
+            }
+            delegate.update(stepExecution);
+        } else if (flushing.remove(id) != null || !lastFlush.containsKey(id)) {
+            delegate.update(stepExecution);
+        }
+    }
+
+    private static boolean isRunning(StepExecution stepExecution) {
+        return stepExecution.getStatus() == BatchStatus.STARTED && stepExecution.getEndTime() == null;
+    }
+}
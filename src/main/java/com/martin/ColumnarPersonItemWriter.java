@@ -0,0 +1,345 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.support.AbstractItemStreamItemWriter;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.martin.ColumnarPersonReader.END_MAGIC;
+import static com.martin.ColumnarPersonReader.MAGIC;
+import static com.martin.ColumnarPersonReader.TRAILER_LENGTH;
+import static com.martin.ColumnarPersonReader.VERSION;
+
+/**
+ * Writes Person items as a columnar file, in the format described by the {@link ColumnarPersonReader}, rather than as
+ * lines of text. Each chunk is a block of its own, each of the named fields a column of the block: a dictionary of the
+ * distinct values then, for each item, the index of its value in the dictionary, so a name repeated in the chunk is
+ * written once. A larger commit interval encodes better.
+ * <p>
+ * A block is written to the file as the chunk is, so the position saved for restart is always the end of a block.
+ * A restart truncates the file to the saved position and finds the blocks already written again from their lengths.
+ * The footer listing the blocks, and the trailer that locates it, are written when the writer is closed.
+ * <p>
+ * It does not discard a chunk that is rolled back, it is for steps that fail rather than skip or retry.
+ */
+public class ColumnarPersonItemWriter extends AbstractItemStreamItemWriter<Person> {
+
+    private static final String POSITION_KEY = "current.count";
+    private static final String WRITTEN_KEY = "written";
+    private static final String SEGMENT_KEY = "segment.start";
+
+    private Resource resource;
+    private PersonField[] fields;
+    private String header;
+    private boolean append = false;
+
+    private FileChannel channel;
+    private long segmentStart;
+    private final List<long[]> blocks = new ArrayList<>();
+    private long written;
+
+    private final Encoder encoder = new Encoder();
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> entries = new ArrayList<>();
+    private int[] indexes = new int[0];
+
+    public ColumnarPersonItemWriter() {
+        setName(ClassUtils.getShortName(ColumnarPersonItemWriter.class));
+    }
+
+    /**
+     * @param resource the file to write
+     */
+    public void setResource(Resource resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * @param names the Person properties written, a column each, in order
+     */
+    public void setNames(String... names) {
+        this.fields = PersonField.forNames(names);
+    }
+
+    /**
+     * @param header the header line of the input, kept in the file, null for none
+     */
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    /**
+     * @param append add a segment to an existing file, without a header, rather than replacing it
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        super.open(executionContext);
+        Assert.notNull(resource, "The resource must be set");
+        Assert.notNull(fields, "The names must be set");
+
+        blocks.clear();
+        try {
+            Path path = resource.getFile().toPath();
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            if (executionContext.containsKey(getExecutionContextKey(POSITION_KEY))) {
+                long position = executionContext.getLong(getExecutionContextKey(POSITION_KEY));
+                channel.truncate(position);
+                channel.position(position);
+                segmentStart = executionContext.getLong(getExecutionContextKey(SEGMENT_KEY));
+                written = executionContext.getLong(getExecutionContextKey(WRITTEN_KEY), 0L);
+                findBlocks(path, position);
+            } else {
+                if (append && channel.size() > 0) {
+                    channel.position(channel.size());
+                } else {
+                    channel.truncate(0);
+                    channel.position(0);
+                }
+                written = 0;
+                startSegment(channel.position() == 0 ? header : null);
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to open " + resource.getDescription(), e);
+        }
+    }
+
+    /**
+     * Writes the items as a block.
+     */
+    @Override
+    public void write(List<? extends Person> items) throws Exception {
+        if (items.isEmpty()) {
+            return;
+        }
+        int rows = items.size();
+        if (indexes.length < rows) {
+            indexes = new int[Math.max(rows, indexes.length * 2)];
+        }
+        encoder.clear();
+        encoder.putInt(0);
+        encoder.putVarint(rows);
+        for (PersonField field : fields) {
+            dictionary.clear();
+            entries.clear();
+            for (int row = 0; row < rows; row++) {
+                String value = field.get(items.get(row));
+                if (value == null) {
+                    indexes[row] = 0;
+                    continue;
+                }
+                Integer entry = dictionary.get(value);
+                if (entry == null) {
+                    entry = entries.size() + 1;
+                    dictionary.put(value, entry);
+                    entries.add(value);
+                }
+                indexes[row] = entry;
+            }
+            encoder.putVarint(entries.size());
+            for (String entry : entries) {
+                encoder.putString(entry);
+            }
+            for (int row = 0; row < rows; row++) {
+                encoder.putVarint(indexes[row]);
+            }
+        }
+        encoder.setInt(0, encoder.size() - Integer.BYTES);
+
+        blocks.add(new long[]{channel.position() - segmentStart, rows});
+        output();
+        written += rows;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        super.update(executionContext);
+        if (channel == null) {
+            return;
+        }
+        try {
+            executionContext.putLong(getExecutionContextKey(POSITION_KEY), channel.position());
+            executionContext.putLong(getExecutionContextKey(SEGMENT_KEY), segmentStart);
+            executionContext.putLong(getExecutionContextKey(WRITTEN_KEY), written);
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to write " + resource.getDescription(), e);
+        }
+    }
+
+    /**
+     * Ends the segment with the footer and trailer.
+     */
+    @Override
+    public void close() throws ItemStreamException {
+        super.close();
+        if (channel == null) {
+            return;
+        }
+        try {
+            encoder.clear();
+            encoder.putVarint(blocks.size());
+            for (long[] block : blocks) {
+                encoder.putVarint(block[0]);
+                encoder.putVarint(block[1]);
+            }
+            int footerLength = encoder.size();
+            encoder.putInt(footerLength);
+            encoder.putLong(channel.position() + footerLength + TRAILER_LENGTH - segmentStart);
+            encoder.putInt(END_MAGIC);
+            output();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to write " + resource.getDescription(), e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* already reported the failure to write, if there was one */
+            }
+            channel = null;
+        }
+    }
+
+    private void startSegment(String header) throws IOException {
+        segmentStart = channel.position();
+        encoder.clear();
+        encoder.putInt(MAGIC);
+        encoder.put(VERSION);
+        encoder.putVarint(fields.length);
+        for (PersonField field : fields) {
+            encoder.putString(field.getPropertyName());
+        }
+        if (header == null) {
+            encoder.putVarint(0);
+        } else {
+            byte[] bytes = header.getBytes(StandardCharsets.UTF_8);
+            encoder.putVarint(bytes.length + 1);
+            encoder.put(bytes);
+        }
+        output();
+    }
+
+    /**
+     * Finds the blocks of the segment written before the restart, from the length at the start of each.
+     */
+    private void findBlocks(Path path, long position) throws IOException {
+        long offset = ColumnarPersonReader.readSegmentStart(channel, segmentStart, path).firstBlock;
+        ByteBuffer start = ByteBuffer.allocate(Integer.BYTES + 5);
+        while (offset < position) {
+            start.clear();
+            while (start.hasRemaining() && channel.read(start, offset + start.position()) > 0) {
+                /* read the length and the number of rows */
+            }
+            start.flip();
+            int length = start.getInt();
+            blocks.add(new long[]{offset - segmentStart, ColumnarPersonReader.getVarint(start)});
+            offset += Integer.BYTES + length;
+        }
+    }
+
+    private void output() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(encoder.bytes, 0, encoder.size());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * A growable buffer of the bytes of a block, reused for every block.
+     */
+    private static class Encoder {
+        private byte[] bytes = new byte[64 * 1024];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void put(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+        }
+
+        void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES);
+            setInt(size, value);
+            size += Integer.BYTES;
+        }
+
+        void setInt(int at, int value) {
+            bytes[at] = (byte) (value >>> 24);
+            bytes[at + 1] = (byte) (value >>> 16);
+            bytes[at + 2] = (byte) (value >>> 8);
+            bytes[at + 3] = (byte) value;
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            putVarint(b.length);
+            put(b);
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length * 2));
+            }
+        }
+    }
+}
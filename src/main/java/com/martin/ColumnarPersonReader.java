@@ -0,0 +1,283 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the Person items of a columnar file written by the {@link ColumnarPersonItemWriter}, for the consumers of the
+ * output. The strings of a block are decoded once each, however many items share them, and there is no text to parse.
+ * <p>
+ * A file is one or more segments, one for each time the writer opened it, so the parts of a split file can simply
+ * be concatenated. Each segment is:
+ * <pre>
+ * segment  := MAGIC version columns header block* footer trailer
+ * columns  := count:varint name:string*                the Person properties, in the order of the columns
+ * header   := the header line of the input, a nullable string
+ * block    := length:int rows:varint column*          one block for each chunk, length counts what follows it
+ * column   := entries:varint string* index:varint*    a dictionary then, per row, 0 for null or entry + 1
+ * footer   := blocks:varint (offset:varint rows:varint)*   offsets are from the start of the segment
+ * trailer  := footerLength:int segmentLength:long END_MAGIC
+ * </pre>
+ * Strings are a varint length and UTF-8 bytes, nullable ones a varint of the length plus one, 0 for null. The
+ * trailers are read from the end of the file back, so the blocks can be found without reading them.
+ * <p>
+ * Not thread safe.
+ */
+public class ColumnarPersonReader implements Closeable {
+
+    static final int MAGIC = 0x50434f4c;
+    static final int END_MAGIC = 0x50434f45;
+    static final byte VERSION = 1;
+    static final int TRAILER_LENGTH = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final List<Block> blocks = new ArrayList<>();
+    private final String header;
+    private final String[] columns;
+    private final long rowCount;
+
+    private int nextBlock;
+    private List<Person> current = Collections.emptyList();
+    private int nextRow;
+
+    /**
+     * @param path a columnar file
+     * @throws IOException if it cannot be read or is not a complete columnar file
+     */
+    public ColumnarPersonReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long end = channel.size();
+            List<List<Block>> segments = new ArrayList<>();
+            while (end > 0) {
+                if (end < TRAILER_LENGTH) {
+                    throw new IOException(path + " is not a complete columnar file");
+                }
+                ByteBuffer trailer = read(end - TRAILER_LENGTH, TRAILER_LENGTH);
+                int footerLength = trailer.getInt();
+                long segmentLength = trailer.getLong();
+                if (trailer.getInt() != END_MAGIC || segmentLength > end || segmentLength <= 0) {
+                    throw new IOException(path + " is not a complete columnar file");
+                }
+                long start = end - segmentLength;
+                PersonField[] columns = PersonField.forNames(readSegmentStart(channel, start, path).columns);
+                ByteBuffer footer = read(end - TRAILER_LENGTH - footerLength, footerLength);
+                int count = (int) getVarint(footer);
+                List<Block> segment = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    segment.add(new Block(start + getVarint(footer), (int) getVarint(footer), columns));
+                }
+                segments.add(0, segment);
+                end = start;
+            }
+            segments.forEach(blocks::addAll);
+            Segment first = readSegmentStart(channel, 0, path);
+            header = first.header;
+            columns = first.columns;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        rowCount = blocks.stream().mapToLong(block -> block.rows).sum();
+    }
+
+    /**
+     * @return the header line of the input the file was written from, null if there was none
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the Person properties written, in the order of the columns
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return the number of items in the file
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of blocks in the file, one for each chunk written
+     */
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * @param index the block, from 0
+     * @return the items of the block, in the order they were written
+     */
+    public List<Person> readBlock(int index) throws IOException {
+        Block block = blocks.get(index);
+        ByteBuffer bytes = read(block.offset, Integer.BYTES);
+        bytes = read(block.offset + Integer.BYTES, bytes.getInt());
+        int rows = (int) getVarint(bytes);
+        List<Person> persons = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            persons.add(new Person());
+        }
+        for (PersonField field : block.columns) {
+            String[] dictionary = new String[(int) getVarint(bytes)];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = getString(bytes);
+            }
+            for (int row = 0; row < rows; row++) {
+                int entry = (int) getVarint(bytes);
+                field.set(persons.get(row), entry == 0 ? null : dictionary[entry - 1]);
+            }
+        }
+        return persons;
+    }
+
+    /**
+     * @return the next item, null at the end of the file
+     */
+    public Person read() throws IOException {
+        while (nextRow == current.size()) {
+            if (nextBlock == blocks.size()) {
+                return null;
+            }
+            current = readBlock(nextBlock++);
+            nextRow = 0;
+        }
+        return current.get(nextRow++);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads just the header, e.g. to find who to notify that the file is ready.
+     *
+     * @param path a columnar file, which need not be complete
+     * @return the header line of the input the file was written from, null if there was none
+     */
+    public static String readHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel, path);
+        }
+    }
+
+    private static String readHeader(FileChannel channel, Path path) throws IOException {
+        return readSegmentStart(channel, 0, path).header;
+    }
+
+    /**
+     * Reads the start of the segment at the offset, up to its first block.
+     */
+    static Segment readSegmentStart(FileChannel channel, long offset, Path path) throws IOException {
+        /* the header is a line of the input, a few hundred bytes, read more if it is longer */
+        int length = 4096;
+        while (true) {
+            ByteBuffer bytes = read(channel, offset, (int) Math.min(length, channel.size() - offset));
+            try {
+                if (bytes.getInt() != MAGIC || bytes.get() != VERSION) {
+                    throw new IOException(path + " is not a columnar file");
+                }
+                String[] columns = new String[(int) getVarint(bytes)];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = getString(bytes);
+                }
+                long headerLength = getVarint(bytes);
+                String header = headerLength == 0 ? null : getString(bytes, (int) headerLength - 1);
+                return new Segment(columns, header, offset + bytes.position());
+            } catch (RuntimeException e) {
+                if (bytes.limit() < length) {
+                    throw new IOException(path + " is not a columnar file", e);
+                }
+                length *= 4;
+            }
+        }
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        return read(channel, offset, length);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, offset + bytes.position()) < 0) {
+                break;
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    static long getVarint(ByteBuffer bytes) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer bytes) {
+        return getString(bytes, (int) getVarint(bytes));
+    }
+
+    private static String getString(ByteBuffer bytes, int length) {
+        String s = new String(bytes.array(), bytes.arrayOffset() + bytes.position(), length, StandardCharsets.UTF_8);
+        bytes.position(bytes.position() + length);
+        return s;
+    }
+
+    /**
+     * The start of a segment: its columns, header and the offset of its first block.
+     */
+    static class Segment {
+        final String[] columns;
+        final String header;
+        final long firstBlock;
+
+        Segment(String[] columns, String header, long firstBlock) {
+            this.columns = columns;
+            this.header = header;
+            this.firstBlock = firstBlock;
+        }
+    }
+
+    private static class Block {
+        final long offset;
+        final int rows;
+        final PersonField[] columns;
+
+        Block(long offset, int rows, PersonField[] columns) {
+            this.offset = offset;
+            this.rows = rows;
+            this.columns = columns;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression of a file, recognised by its extension. Both formats allow members, or frames, to be concatenated
+ * so the output of a byte range partition can be appended to another's and a file can be written in pieces.
+ */
+public enum Compression {
+    NONE(""),
+    GZIP(".gz"),
+    ZSTD(".zst");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    Compression(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return the file extension, including the dot, empty for no compression
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param out the stream the compressed bytes are written to
+     * @return a stream that compresses what is written to it, closing it ends the member or frame and closes out
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * @param in the compressed stream
+     * @return a stream of the decompressed bytes of all the members or frames of in
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * @param name none, gzip or zstd, null for none
+     * @return the compression of that name
+     */
+    public static Compression forName(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        for (Compression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression " + name + ", expected none, gzip or zstd");
+    }
+
+    /**
+     * @param filename the name of a file
+     * @return the compression its extension says it has
+     */
+    public static Compression forFilename(String filename) {
+        for (Compression compression : values()) {
+            if (compression != NONE && filename.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param filename the name of a file, or a pattern of names
+     * @return the name without the extension of its compression
+     */
+    public static String stripExtension(String filename) {
+        Compression compression = forFilename(filename);
+        return filename.substring(0, filename.length() - compression.extension.length());
+    }
+}
@@ -16,10 +16,17 @@ import org.springframework.batch.item.ExecutionContext;
 import org.springframework.core.io.Resource;
 import org.springframework.util.Assert;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -28,10 +35,27 @@ public class CustomMultiResourcePartitioner implements Partitioner {
     private static final String DEFAULT_IN_KEY_NAME = "inputFile";
     private static final String DEFAULT_OUT_KEY_NAME = "outputFile";
 
+    static final String START_KEY_NAME = "startOffset";
+    static final String END_KEY_NAME = "endOffset";
+    static final String PART_KEY_NAME = "partIndex";
+    static final String SIZE_KEY_NAME = "inputSize";
+
+    /**
+     * Appended to the output filename of a byte range partition, followed by the zero padded part index, e.g.
+     * data-xxx-out.csv.part0003. The parts are concatenated back into the output file by the {@link PartMergingTasklet}.
+     */
+    static final String PART_SUFFIX = ".part";
+
     private static final String PARTITION_KEY = "partition";
 
     private Resource[] resources = new Resource[0];
 
+    private long splitThreshold = 0;
+
+    private OutputFormat outputFormat = OutputFormat.CSV;
+
+    private String outputExtension = "";
+
     /**
      * The resources to assign to each partition. In Spring configuration you
      * can use a pattern to select multiple resources.
@@ -42,9 +66,34 @@ public class CustomMultiResourcePartitioner implements Partitioner {
         this.resources = resources;
     }
 
+    /**
+     * @param outputFormat the format of the output files, which gives them their extension, csv if not set
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * @param outputExtension appended to the output filenames, e.g. .gz for compressed output
+     */
+    public void setOutputExtension(String outputExtension) {
+        this.outputExtension = outputExtension;
+    }
+
+    /**
+     * Files larger than this number of bytes are split into newline aligned byte ranges, each processed by its own
+     * partition. Zero, the default, disables splitting so each file is processed by exactly one partition.
+     *
+     * @param splitThreshold the minimum file size, in bytes, before a file is split
+     */
+    public void setSplitThreshold(long splitThreshold) {
+        this.splitThreshold = splitThreshold;
+    }
+
     /**
      * Assign the filename of each of the injected resources to an
-     * {@link ExecutionContext}.
+     * {@link ExecutionContext}. When splitting is enabled a large file is assigned to up to gridSize contexts, each
+     * holding the start and end offset of its byte range.
      *
      * @see Partitioner#partition(int)
      */
@@ -53,7 +102,6 @@ public class CustomMultiResourcePartitioner implements Partitioner {
         Map<String, ExecutionContext> map = new HashMap<>(gridSize);
         int i = 0;
         for (Resource resource : resources) {
-            ExecutionContext context = new ExecutionContext();
             Assert.state(resource.exists(), "Resource does not exist: " + resource);
 
             File file;
@@ -63,14 +111,29 @@ public class CustomMultiResourcePartitioner implements Partitioner {
                 throw new RuntimeException(e);
             }
             String absolutePath = file.getAbsolutePath();
+            String outputFile = filename(Objects.requireNonNull(resource.getFilename()));
 
+            /* a compressed file can only be read from the start */
+            boolean compressed = Compression.forFilename(file.getName()) != Compression.NONE;
+            if (splitThreshold > 0 && gridSize > 1 && file.length() > splitThreshold && !compressed) {
+                int parts = (int) Math.min(gridSize, (file.length() + splitThreshold - 1) / splitThreshold);
+                for (ExecutionContext context : split(file, outputFile, parts)) {
+                    map.put(PARTITION_KEY + i, context);
+                    i++;
+                }
+                continue;
+            }
+
+            ExecutionContext context = new ExecutionContext();
             /*
             Stores the absolute path/name of the input file in the context but just the filename of the output
             file.
              */
             context.put(DEFAULT_IN_KEY_NAME, absolutePath);
             /* Store the output filename */
-            context.putString(DEFAULT_OUT_KEY_NAME, filename(Objects.requireNonNull(resource.getFilename())));
+            context.putString(DEFAULT_OUT_KEY_NAME, outputFile);
+            /* used to schedule the largest partitions first */
+            context.putLong(SIZE_KEY_NAME, file.length());
 
             map.put(PARTITION_KEY + i, context);
             i++;
@@ -79,11 +142,96 @@ public class CustomMultiResourcePartitioner implements Partitioner {
     }
 
     /**
-     * Builds the output filename based on the input filename
+     * Splits the body of a file, everything after the header line, into at most the given number of byte ranges.
+     * Each range starts at the beginning of a line and ends just after a newline, or at the end of the file. The
+     * header is read once here and placed in every context, the first part writes it to the output.
+     *
+     * @param file       the input file
+     * @param outputFile the output filename the parts are merged into
+     * @param parts      the maximum number of ranges
+     * @return an {@link ExecutionContext} per range, in file order
+     */
+    private List<ExecutionContext> split(File file, String outputFile, int parts) {
+        List<ExecutionContext> contexts = new ArrayList<>(parts);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            long bodyStart = nextLineStart(channel, 0, headerBytes);
+            String header = headerBytes.toString(Charset.defaultCharset().name());
+            if (header.endsWith("\r")) {
+                header = header.substring(0, header.length() - 1);
+            }
+
+            long start = bodyStart;
+            for (int part = 1; part <= parts && start < size; part++) {
+                long end = part == parts ? size
+                        : nextLineStart(channel, bodyStart + (size - bodyStart) * part / parts, null);
+                if (end <= start) {
+                    continue;
+                }
+                ExecutionContext context = new ExecutionContext();
+                context.putString(DEFAULT_IN_KEY_NAME, file.getAbsolutePath());
+                context.putString(DEFAULT_OUT_KEY_NAME, outputFile + PART_SUFFIX + String.format("%04d", contexts.size()));
+                context.putInt(PART_KEY_NAME, contexts.size());
+                context.putLong(START_KEY_NAME, start);
+                context.putLong(END_KEY_NAME, end);
+                context.putLong(SIZE_KEY_NAME, end - start);
+                FileCallbackHandler.handleHeader(context, header);
+                contexts.add(context);
+                start = end;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("I/O problems when splitting " + file, e);
+        }
+        return contexts;
+    }
+
+    /**
+     * Finds the start of the first line beginning at or after the given position.
+     *
+     * @param channel  the file
+     * @param position where to start looking
+     * @param skipped  if not null, receives the bytes between the position and the newline
+     * @return the offset just after the next newline, or the file size if there is none
+     */
+    private static long nextLineStart(FileChannel channel, long position, ByteArrayOutputStream skipped)
+            throws IOException {
+        if (position > 0) {
+            /* a position just after a newline is already the start of a line */
+            position--;
+            skipped = null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = position;
+        while (channel.read(buffer, offset) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                offset++;
+                if (b == '\n') {
+                    return offset;
+                }
+                if (skipped != null) {
+                    skipped.write(b);
+                }
+            }
+            buffer.clear();
+        }
+        return channel.size();
+    }
+
+    /**
+     * Builds the output filename based on the input filename, x.csv or x.csv.gz becoming x-out.csv, or x-out.pcol for
+     * columnar output, plus the output extension
      * @param filename the input filename
      * @return the output filename
      */
     private String filename(String filename) {
-        return filename.replaceAll("\\.csv$","-out.csv" );
+        return outputFilename(filename, outputFormat, outputExtension);
+    }
+
+    static String outputFilename(String filename, OutputFormat outputFormat, String outputExtension) {
+        return Compression.stripExtension(filename).replaceAll("\\.csv$","-out" + outputFormat.getExtension())
+                + outputExtension;
     }
 }
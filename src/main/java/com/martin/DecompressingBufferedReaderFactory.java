@@ -0,0 +1,168 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.item.file.BufferedReaderFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Creates a {@link BufferedReader} over a compressed file for a {@link org.springframework.batch.item.file.FlatFileItemReader}.
+ * The file is decompressed on a thread of its own into a bounded queue of blocks, so the step's thread only parses
+ * and inflating overlaps it. The compression is that of the file's extension, see {@link Compression}.
+ */
+public class DecompressingBufferedReaderFactory implements BufferedReaderFactory {
+
+    private static final byte[] END = new byte[0];
+
+    private int blockSize = 64 * 1024;
+    private int blocks = 16;
+
+    /**
+     * @param blockSize the number of decompressed bytes passed to the reader at a time
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param blocks the most blocks decompressed ahead of the reader
+     */
+    public void setBlocks(int blocks) {
+        this.blocks = blocks;
+    }
+
+    @Override
+    public BufferedReader create(Resource resource, String encoding) throws IOException {
+        Compression compression = Compression.forFilename(resource.getFilename());
+        InputStream in = compression.decompress(resource.getInputStream());
+        QueueInputStream queue = new QueueInputStream(in, new ArrayBlockingQueue<>(blocks));
+        queue.start(resource.getFilename());
+        return new BufferedReader(new InputStreamReader(queue, encoding));
+    }
+
+    /**
+     * The blocks decompressed by its thread, in order, as a stream.
+     */
+    private class QueueInputStream extends InputStream {
+
+        private final InputStream in;
+        private final BlockingQueue<Object> queue;
+        private Thread inflater;
+        private volatile boolean closed;
+
+        private byte[] block;
+        private int position;
+
+        QueueInputStream(InputStream in, BlockingQueue<Object> queue) {
+            this.in = in;
+            this.queue = queue;
+        }
+
+        void start(String name) {
+            inflater = new Thread(this::inflate, "inflate-" + name);
+            inflater.setDaemon(true);
+            inflater.start();
+        }
+
+        private void inflate() {
+            try {
+                while (!closed) {
+                    byte[] next = new byte[blockSize];
+                    int length = in.readNBytes(next, 0, blockSize);
+                    if (length == 0) {
+                        break;
+                    }
+                    queue.put(length == blockSize ? next : Arrays.copyOf(next, length));
+                }
+                queue.put(END);
+            } catch (InterruptedException e) {
+                /* the reader has been closed */
+            } catch (Throwable e) {
+                /* whatever failed, the reader is told rather than left waiting for a block that never comes */
+                try {
+                    queue.put(e);
+                } catch (InterruptedException closed) {
+                    /* the reader has been closed */
+                }
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    /* nothing more to read */
+                }
+            }
+        }
+
+        private boolean next() throws IOException {
+            if (block == END) {
+                return false;
+            }
+            if (block == null || position == block.length) {
+                Object next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the file to be decompressed");
+                }
+                if (next instanceof Throwable) {
+                    block = END;
+                    if (next instanceof Error) {
+                        throw (Error) next;
+                    }
+                    throw new IOException("Failed to decompress", (Throwable) next);
+                }
+                block = (byte[]) next;
+                position = 0;
+            }
+            return block != END;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? block[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            inflater.interrupt();
+            try {
+                inflater.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
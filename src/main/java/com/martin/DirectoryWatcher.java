@@ -0,0 +1,219 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the input directory and launches a job for each input file as soon as it is complete, rather than
+ * processing the files found when the application starts and exiting.
+ * <p>
+ * A file is complete once its size and modification time have not changed for the quiet period or, with a marker
+ * suffix, once a file of its name plus the suffix exists, e.g. data-1.csv.done. Each job has the parameters the
+ * application was started with, the file's name as the filename.pattern and a run.id of its own. The jobs are launched
+ * with a launcher of their own so several files are processed at once, their partitions sharing the taskExecutor.
+ * <p>
+ * Files already in the directory when watching starts are treated as new unless told otherwise. A file is launched
+ * again if it is modified after it was launched. Incremental runs should not be combined with watching as the jobs
+ * would share the pending manifest.
+ */
+public class DirectoryWatcher implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    static final String WATCH_PARAMETER = "watch";
+
+    private final JobLauncher jobLauncher;
+    private final Job job;
+    private final AtomicLong runId = new AtomicLong(System.currentTimeMillis());
+
+    private long quietPeriod;
+    private String markerSuffix;
+
+    private volatile WatchService watchService;
+
+    /* files seen but not yet complete, with their size and modification time when last checked */
+    private final Map<Path, FileState> pending = new LinkedHashMap<>();
+    /* files launched, with their modification time, so a repeated event does not launch a file twice */
+    private final Map<Path, FileTime> launched = new HashMap<>();
+
+    public DirectoryWatcher(JobLauncher jobLauncher, Job job) {
+        this.jobLauncher = jobLauncher;
+        this.job = job;
+    }
+
+    /**
+     * Watches the input.dir for files matching the filename.pattern of the parameters until the application stops.
+     * watch.quiet.ms (2000) is the time a file must not change before it is complete, watch.marker a suffix that
+     * marks a file complete instead and watch.existing=false ignores the files already in the directory.
+     *
+     * @param parameters the parameters the application was started with
+     */
+    public void watch(JobParameters parameters) throws IOException, InterruptedException {
+        Path directory = Paths.get(parameters.getString("input.dir"));
+        String pattern = parameters.getString("filename.pattern");
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        quietPeriod = Long.parseLong(parameters.getString("watch.quiet.ms", "2000"));
+        markerSuffix = parameters.getString("watch.marker");
+        boolean includeExisting = Boolean.parseBoolean(parameters.getString("watch.existing", "true"));
+
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        log.info("Watching {} for {}", directory, pattern);
+        if (includeExisting) {
+            scan(directory, matcher);
+        }
+
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? watchService.take()
+                        : watchService.poll(Math.max(50, Math.min(1000, quietPeriod / 4)), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            log.warn("Missed events in {}, rescanning it", directory);
+                            scan(directory, matcher);
+                            continue;
+                        }
+                        changed(directory.resolve((Path) event.context()), event.kind(), matcher);
+                    }
+                    key.reset();
+                }
+                launchCompleted(parameters);
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Stopped watching {}", directory);
+        }
+    }
+
+    private void scan(Path directory, PathMatcher matcher) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                changed(file, StandardWatchEventKinds.ENTRY_CREATE, matcher);
+            }
+        }
+    }
+
+    private void changed(Path file, WatchEvent.Kind<?> kind, PathMatcher matcher) {
+        Path input = file;
+        if (markerSuffix != null && file.getFileName().toString().endsWith(markerSuffix)) {
+            String name = file.getFileName().toString();
+            input = file.resolveSibling(name.substring(0, name.length() - markerSuffix.length()));
+        }
+        if (!matcher.matches(input.getFileName())) {
+            return;
+        }
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE && input.equals(file)) {
+            pending.remove(input);
+            launched.remove(input);
+            return;
+        }
+        pending.putIfAbsent(input, new FileState());
+    }
+
+    private void launchCompleted(JobParameters parameters) {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<Path, FileState>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Path, FileState> entry = i.next();
+            Path file = entry.getKey();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                /* gone, or not there yet as only its marker is */
+                if (!Files.exists(file)) {
+                    i.remove();
+                }
+                continue;
+            }
+            if (!attributes.isRegularFile() || attributes.lastModifiedTime().equals(launched.get(file))) {
+                i.remove();
+                continue;
+            }
+            if (!entry.getValue().isComplete(file, attributes, now)) {
+                continue;
+            }
+            i.remove();
+            launched.put(file, attributes.lastModifiedTime());
+            launch(file, parameters);
+        }
+    }
+
+    private void launch(Path file, JobParameters parameters) {
+        JobParameters fileParameters = new JobParametersBuilder(parameters)
+                .addString("filename.pattern", file.getFileName().toString())
+                .addLong("run.id", runId.incrementAndGet())
+                .toJobParameters();
+        try {
+            JobExecution execution = jobLauncher.run(job, fileParameters);
+            log.info("Launched job execution {} for {}", execution.getId(), file);
+        } catch (Exception e) {
+            log.error("Failed to launch a job for {}", file, e);
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * A file's size and modification time when it was last checked and when they last changed.
+     */
+    private final class FileState {
+        private long size = -1;
+        private FileTime modified;
+        private long changed;
+
+        boolean isComplete(Path file, BasicFileAttributes attributes, long now) {
+            if (markerSuffix != null) {
+                return Files.exists(file.resolveSibling(file.getFileName() + markerSuffix));
+            }
+            if (attributes.size() != size || !attributes.lastModifiedTime().equals(modified)) {
+                size = attributes.size();
+                modified = attributes.lastModifiedTime();
+                changed = now;
+                return false;
+            }
+            return now - changed >= quietPeriod;
+        }
+    }
+}
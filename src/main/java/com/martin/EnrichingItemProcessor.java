@@ -0,0 +1,152 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.batch.item.ItemProcessor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sets the attributes of each Person from a {@link ReferenceIndex}, looked up by one of its fields, the last name
+ * unless set otherwise. The index is shared by every partition, a cache of the most recently used keys, misses
+ * included, saves the lookups of names that are common in a partition's file.
+ * <p>
+ * A Person whose key is not in the index is passed on without attributes, given the default attributes, filtered out
+ * or fails the step, as the {@link MissPolicy} says.
+ * <p>
+ * Items may be processed on several threads at once, the cache is shared between them.
+ */
+public class EnrichingItemProcessor implements ItemProcessor<Person, Person> {
+
+    /**
+     * What to do with a Person whose key is not in the reference file.
+     */
+    public enum MissPolicy {
+        /** pass the Person on without attributes */
+        KEEP,
+        /** pass the Person on with the default attributes */
+        DEFAULT,
+        /** filter the Person out */
+        FILTER,
+        /** throw a {@link ReferenceNotFoundException} */
+        FAIL;
+
+        /**
+         * @param name keep, default, filter or fail
+         * @return the policy of that name
+         */
+        public static MissPolicy forName(String name) {
+            for (MissPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown miss policy " + name + ", expected keep, default, filter or fail");
+        }
+    }
+
+    /* cached for a key that is not in the index */
+    private static final String MISSING = new String("");
+
+    private final ReferenceIndex index;
+    private final PersonField key;
+    private MissPolicy missPolicy = MissPolicy.KEEP;
+    private String defaultAttributes;
+    private Map<String, String> cache;
+
+    private final Counter hits = Metrics.counter("enrichment.lookups", "result", "hit");
+    private final Counter misses = Metrics.counter("enrichment.lookups", "result", "miss");
+    private final Counter cached = Metrics.counter("enrichment.lookups", "result", "cached");
+
+    /**
+     * @param index the index of the reference file
+     * @param key   the property of the Person looked up, e.g. lastName
+     */
+    public EnrichingItemProcessor(ReferenceIndex index, String key) {
+        this.index = index;
+        this.key = PersonField.forName(key);
+    }
+
+    /**
+     * @param missPolicy what to do with a Person whose key is not in the index, keep if not set
+     */
+    public void setMissPolicy(MissPolicy missPolicy) {
+        this.missPolicy = missPolicy;
+    }
+
+    /**
+     * @param defaultAttributes given to a Person whose key is not in the index by the default miss policy
+     */
+    public void setDefaultAttributes(String defaultAttributes) {
+        this.defaultAttributes = defaultAttributes;
+    }
+
+    /**
+     * @param cacheSize the number of recently used keys kept on the heap, 0, the default, for none
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize <= 0) {
+            cache = null;
+            return;
+        }
+        cache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    @Override
+    public Person process(Person person) {
+        String name = key.get(person);
+        String attributes = name == null ? null : lookup(name);
+        if (attributes != null) {
+            person.setAttributes(attributes);
+            return person;
+        }
+        switch (missPolicy) {
+            case DEFAULT:
+                person.setAttributes(defaultAttributes);
+                return person;
+            case FILTER:
+                return null;
+            case FAIL:
+                throw new ReferenceNotFoundException("No reference attributes for " + name + " in " + index);
+            default:
+                return person;
+        }
+    }
+
+    private String lookup(String name) {
+        if (cache == null) {
+            return lookupIndex(name);
+        }
+        String attributes = cache.get(name);
+        if (attributes != null) {
+            cached.increment();
+            return attributes == MISSING ? null : attributes;
+        }
+        attributes = lookupIndex(name);
+        cache.put(name, attributes == null ? MISSING : attributes);
+        return attributes;
+    }
+
+    private String lookupIndex(String name) {
+        String attributes = index.get(name);
+        (attributes == null ? misses : hits).increment();
+        return attributes;
+    }
+}
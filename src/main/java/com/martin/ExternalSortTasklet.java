@@ -0,0 +1,367 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Sorts the lines of all the output files in the output directory, by last name then first name, into a single
+ * file. The lines are read into a buffer of bounded size, which is sorted and spilled to a run file in the temporary
+ * directory whenever it fills, then the runs are merged, at most fan-in of them at once, with a priority queue of the
+ * next line of each. Only the buffer and a line of each run being merged are on the heap, so the outputs can be much
+ * larger than the heap.
+ * <p>
+ * The header of each csv output is dropped, columnar outputs are read with the {@link ColumnarPersonReader}. The csv
+ * outputs are read, and the runs and the sorted file written, in the charset the outputs were written in, a line that
+ * is not valid in it failing the step rather than being sorted with its bad bytes replaced. Lines of
+ * the same name keep their order by the whole line, so the result is the same whatever the order of the inputs. The
+ * sorted file is written next to its final name and moved into place, the runs are deleted however the step ends.
+ */
+public class ExternalSortTasklet implements Tasklet {
+    private static final Logger log = LoggerFactory.getLogger(ExternalSortTasklet.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /* a guess at the heap taken by a line besides its chars: the Line, the String and its array headers */
+    private static final int LINE_OVERHEAD = 64;
+
+    private static final Comparator<Line> ORDER = Comparator.naturalOrder();
+
+    private Path location;
+    private String pattern;
+    private Path sortedFile;
+    private Compression compression = Compression.NONE;
+    private Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+    private long bufferBytes = 64L * 1024 * 1024;
+    private int fanIn = 64;
+    private Charset charset = Charset.defaultCharset();
+
+    /* every run created, deleted however the step ends */
+    private final List<Path> created = new ArrayList<>();
+
+    public void setDirectoryResource(String location, String pattern) {
+        this.location = Paths.get(location);
+        /* the outputs of compressed inputs are named as those of uncompressed ones */
+        this.pattern = Compression.stripExtension(pattern);
+    }
+
+    /**
+     * @param sortedFile the file the sorted lines are written to
+     */
+    public void setSortedFile(Path sortedFile) {
+        this.sortedFile = sortedFile;
+    }
+
+    /**
+     * @param compression the compression of the sorted file, none if not set
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @param tempDirectory where the runs are spilled, java.io.tmpdir if not set
+     */
+    public void setTempDirectory(Path tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @param bufferBytes about the most heap the lines being sorted take, 64MB if not set
+     */
+    public void setBufferBytes(long bufferBytes) {
+        this.bufferBytes = bufferBytes;
+    }
+
+    /**
+     * @param fanIn the most runs merged at once, 64 if not set
+     */
+    public void setFanIn(int fanIn) {
+        this.fanIn = Math.max(2, fanIn);
+    }
+
+    /**
+     * @param charset the encoding of the csv outputs and of the sorted file, the platform default if not set
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        long start = System.nanoTime();
+        try {
+            List<Path> runs = new ArrayList<>();
+            long lines = spill(outputs(), runs);
+            int spilled = runs.size();
+            while (runs.size() > fanIn) {
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<Path> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                    Path run = newRun();
+                    merged.add(run);
+                    try (Writer writer = Files.newBufferedWriter(run, charset)) {
+                        merge(group, writer);
+                    }
+                    delete(group);
+                }
+                runs = merged;
+            }
+
+            Path tmp = sortedFile.resolveSibling(sortedFile.getFileName() + ".tmp");
+            try (OutputStream out = compression.compress(Files.newOutputStream(tmp));
+                 Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset),
+                         READ_BUFFER_SIZE)) {
+                merge(runs, writer);
+            }
+            Files.move(tmp, sortedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Sorted {} lines into {} through {} runs in {}ms", lines, sortedFile, spilled,
+                    (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            delete(created);
+            created.clear();
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    private Path newRun() throws IOException {
+        Path run = Files.createTempFile(tempDirectory, "sort-", ".run");
+        created.add(run);
+        return run;
+    }
+
+    /**
+     * @return the output files, in name order, not the sorted file itself
+     */
+    private List<Path> outputs() throws IOException {
+        TreeSet<Path> outputs = new TreeSet<>();
+        for (OutputFormat format : OutputFormat.values()) {
+            for (Compression outputCompression : Compression.values()) {
+                String glob = CustomMultiResourcePartitioner.outputFilename(pattern, format,
+                        outputCompression.getExtension());
+                try (DirectoryStream<Path> paths = Files.newDirectoryStream(location, glob)) {
+                    for (Path path : paths) {
+                        String name = path.getFileName().toString();
+                        if (Files.isRegularFile(path) && !name.contains(CustomMultiResourcePartitioner.PART_SUFFIX)
+                                && !path.toAbsolutePath().equals(sortedFile.toAbsolutePath())) {
+                            outputs.add(path);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(outputs);
+    }
+
+    /**
+     * Reads the lines of the outputs into the buffer, sorting and spilling it to a run whenever it is full.
+     *
+     * @return the number of lines
+     */
+    private long spill(List<Path> outputs, List<Path> runs) throws IOException {
+        List<Line> buffer = new ArrayList<>();
+        long bytes = 0;
+        long lines = 0;
+        for (Path output : outputs) {
+            try (LineSource source = open(output)) {
+                String line;
+                while ((line = source.next()) != null) {
+                    buffer.add(new Line(line));
+                    bytes += LINE_OVERHEAD + 2L * line.length();
+                    lines++;
+                    if (bytes >= bufferBytes) {
+                        runs.add(spill(buffer));
+                        bytes = 0;
+                    }
+                }
+            }
+        }
+        if (!buffer.isEmpty() || runs.isEmpty()) {
+            runs.add(spill(buffer));
+        }
+        return lines;
+    }
+
+    private Path spill(List<Line> buffer) throws IOException {
+        buffer.sort(ORDER);
+        Path run = newRun();
+        try (Writer writer = Files.newBufferedWriter(run, charset)) {
+            for (Line line : buffer) {
+                writer.write(line.text);
+                writer.write('\n');
+            }
+        }
+        log.debug("Spilled {} lines to {}", buffer.size(), run);
+        buffer.clear();
+        return run;
+    }
+
+    /**
+     * Merges the sorted runs, taking the lowest of their next lines each time.
+     */
+    private void merge(List<Path> runs, Writer writer) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(runs.size(), Comparator.comparing(run -> run.line, ORDER));
+        try {
+            for (Path path : runs) {
+                Run run = new Run(Files.newBufferedReader(path, charset));
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+            Run run;
+            while ((run = queue.poll()) != null) {
+                writer.write(run.line.text);
+                writer.write('\n');
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+        }
+    }
+
+    private LineSource open(Path output) throws IOException {
+        String name = output.getFileName().toString();
+        if (OutputFormat.forFilename(name) == OutputFormat.COLUMNAR) {
+            ColumnarPersonReader reader = new ColumnarPersonReader(output);
+            /* the lines the csv writer would have written */
+            PersonLineAggregator aggregator = new PersonLineAggregator(reader.getColumns());
+            return new LineSource() {
+                @Override
+                public String next() throws IOException {
+                    Person person = reader.read();
+                    return person == null ? null : aggregator.aggregate(person);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Compression.forFilename(name).decompress(Files.newInputStream(output)), charset.newDecoder()),
+                READ_BUFFER_SIZE);
+        /* the header, or the empty line written in its place */
+        reader.readLine();
+        return new LineSource() {
+            @Override
+            public String next() throws IOException {
+                return reader.readLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    private static void delete(List<Path> paths) throws IOException {
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private interface LineSource extends Closeable {
+        String next() throws IOException;
+    }
+
+    /**
+     * A line of an output and where its first two fields, the first and last names, end.
+     */
+    static final class Line implements Comparable<Line> {
+        final String text;
+        private final int firstEnd;
+        private final int lastEnd;
+
+        Line(String text) {
+            this.text = text;
+            int comma = text.indexOf(',');
+            this.firstEnd = comma < 0 ? text.length() : comma;
+            comma = comma < 0 ? -1 : text.indexOf(',', firstEnd + 1);
+            this.lastEnd = comma < 0 ? text.length() : comma;
+        }
+
+        @Override
+        public int compareTo(Line other) {
+            int c = compare(text, Math.min(firstEnd + 1, text.length()), lastEnd,
+                    other.text, Math.min(other.firstEnd + 1, other.text.length()), other.lastEnd);
+            if (c == 0) {
+                c = compare(text, 0, firstEnd, other.text, 0, other.firstEnd);
+            }
+            return c == 0 ? text.compareTo(other.text) : c;
+        }
+
+        private static int compare(String a, int aFrom, int aTo, String b, int bFrom, int bTo) {
+            int length = Math.min(aTo - aFrom, bTo - bFrom);
+            for (int i = 0; i < length; i++) {
+                char x = a.charAt(aFrom + i);
+                char y = b.charAt(bFrom + i);
+                if (x != y) {
+                    return x - y;
+                }
+            }
+            return (aTo - aFrom) - (bTo - bFrom);
+        }
+    }
+
+    private static final class Run implements Closeable {
+        private final BufferedReader reader;
+        private Line line;
+
+        Run(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        boolean advance() throws IOException {
+            String text = reader.readLine();
+            line = text == null ? null : new Line(text);
+            return line != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -21,20 +21,50 @@ import java.io.File;
 public class FileCallbackHandler implements LineCallbackHandler , StepExecutionListener  {
     private static final Logger logger = LoggerFactory.getLogger(FileCallbackHandler.class);
     private final String outputLocation;
+    private final NotificationDispatcher notificationDispatcher;
 
     private ExecutionContext c;
 
     public FileCallbackHandler(String outputLocation) {
+        this(outputLocation, null);
+    }
+
+    /**
+     * @param outputLocation         the directory the output file is written to
+     * @param notificationDispatcher sends the notification that the output file is ready, without one it is logged
+     */
+    public FileCallbackHandler(String outputLocation, NotificationDispatcher notificationDispatcher) {
         this.outputLocation = outputLocation;
+        this.notificationDispatcher = notificationDispatcher;
     }
 
     @Override
     public void handleLine(String line) {
-        if(line.startsWith("email:")){
-            String emailAddr = line.trim().substring(6);
-            c.put("email", emailAddr);
+        handleHeader(c, line);
+    }
+
+    /**
+     * Stores the header line, and the email address it may carry, in the given context.
+     * @param context the step execution context
+     * @param line the header line
+     */
+    static void handleHeader(ExecutionContext context, String line) {
+        String emailAddr = emailAddress(line);
+        if(emailAddr != null){
+            context.put("email", emailAddr);
+        }
+        context.put("header", line);
+    }
+
+    /**
+     * @param line a header line
+     * @return the email address in the header line or null if it doesn't have one
+     */
+    static String emailAddress(String line) {
+        if(line != null && line.startsWith("email:")){
+            return line.trim().substring(6);
         }
-        c.put("header", line);
+        return null;
     }
 
     @Override
@@ -48,9 +78,18 @@ public class FileCallbackHandler implements LineCallbackHandler , StepExecutionL
         String fileName = (String) c.get("outputFile");
         String email = (String) c.get("email");
 
-        if(stepExecution.getExitStatus().equals(ExitStatus.COMPLETED) && email!=null) {
+        if(c.containsKey(CustomMultiResourcePartitioner.PART_KEY_NAME)) {
+            /* only part of the output file, the PartMergingTasklet reports it once all the parts are merged */
+            return ExitStatus.COMPLETED;
+        }
 
-            logger.info("Send email to {} saying file {} is ready.", email, outputLocation+ File.separator+fileName);
+        if(stepExecution.getExitStatus().equals(ExitStatus.COMPLETED) && email!=null) {
+            String file = outputLocation + File.separator + fileName;
+            if (notificationDispatcher != null) {
+                notificationDispatcher.fileReady(email, file);
+            } else {
+                logger.info("Send email to {} saying file {} is ready.", email, file);
+            }
         }
 
         if(email == null) {
@@ -0,0 +1,301 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.FlatFileHeaderCallback;
+import org.springframework.batch.item.file.transform.LineAggregator;
+import org.springframework.batch.item.support.AbstractItemStreamItemWriter;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes lines to a file through a {@link FileChannel} and a single large buffer, an alternative to the
+ * {@link org.springframework.batch.item.file.FlatFileItemWriter} for output to slow storage. The buffer is written
+ * when it fills and at the end of each chunk, so the position saved for restart is always in the file. The file is
+ * forced to the storage device at the end of the step and, optionally, every few chunks.
+ * <p>
+ * With compression each chunk's lines are a gzip member or zstd frame of their own, so the file can be truncated at
+ * any saved position on restart and still be read in full. A larger commit interval compresses better.
+ * <p>
+ * As with the FlatFileItemWriter the header, if there is a header callback, is written first followed by the line
+ * separator, the position and the number of items written are saved in the step's context and a restart truncates
+ * the file to the saved position. It does not discard a chunk that is rolled back, it is for steps that fail rather
+ * than skip or retry.
+ *
+ * @param <T> the type of item written
+ */
+public class FileChannelItemWriter<T> extends AbstractItemStreamItemWriter<T> {
+
+    private static final String POSITION_KEY = "current.count";
+    private static final String WRITTEN_KEY = "written";
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private Resource resource;
+    private LineAggregator<T> lineAggregator;
+    private FlatFileHeaderCallback headerCallback;
+    private Charset charset = Charset.defaultCharset();
+    private String lineSeparator = System.lineSeparator();
+    private boolean append = false;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private boolean direct = false;
+    private int forceInterval = 0;
+    private Compression compression = Compression.NONE;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private OutputStream compressor;
+    private byte[] separator;
+    private long written;
+    private long chunks;
+
+    public FileChannelItemWriter() {
+        setName(ClassUtils.getShortName(FileChannelItemWriter.class));
+    }
+
+    /**
+     * @param resource the file to write
+     */
+    public void setResource(Resource resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * @param lineAggregator turns each item into a line
+     */
+    public void setLineAggregator(LineAggregator<T> lineAggregator) {
+        this.lineAggregator = lineAggregator;
+    }
+
+    /**
+     * @param headerCallback writes the header when the file is started, null for no header
+     */
+    public void setHeaderCallback(FlatFileHeaderCallback headerCallback) {
+        this.headerCallback = headerCallback;
+    }
+
+    /**
+     * @param charset the encoding of the file, the platform default if not set, as with the FlatFileItemWriter
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * @param lineSeparator written after each line, the platform's if not set
+     */
+    public void setLineSeparator(String lineSeparator) {
+        this.lineSeparator = lineSeparator;
+    }
+
+    /**
+     * @param append add to an existing file, without a header, rather than replacing it
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * @param bufferSize the number of bytes buffered before they are written, 1MB if not set
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param direct allocate the buffer outside the heap, which saves a copy when the file is not compressed
+     */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * @param forceInterval force the file to the storage device every this many chunks, zero for only at the end of
+     *                      the step
+     */
+    public void setForceInterval(int forceInterval) {
+        this.forceInterval = forceInterval;
+    }
+
+    /**
+     * @param compression the compression of the file, none if not set
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        super.open(executionContext);
+        Assert.notNull(resource, "The resource must be set");
+        Assert.notNull(lineAggregator, "The line aggregator must be set");
+
+        separator = lineSeparator.getBytes(charset);
+        /* the compressor takes a byte array, a direct buffer would need copying into one */
+        buffer = direct && compression == Compression.NONE
+                ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        chunks = 0;
+        try {
+            Path path = resource.getFile().toPath();
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            if (executionContext.containsKey(getExecutionContextKey(POSITION_KEY))) {
+                long position = executionContext.getLong(getExecutionContextKey(POSITION_KEY));
+                channel.truncate(position);
+                channel.position(position);
+                written = executionContext.getLong(getExecutionContextKey(WRITTEN_KEY), 0L);
+            } else if (append && channel.size() > 0) {
+                channel.position(channel.size());
+                written = 0;
+            } else {
+                channel.truncate(0);
+                written = 0;
+                if (headerCallback != null) {
+                    StringWriter header = new StringWriter();
+                    headerCallback.writeHeader(header);
+                    put(header.toString().getBytes(charset));
+                    put(separator);
+                }
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to open " + resource.getDescription(), e);
+        }
+    }
+
+    @Override
+    public void write(List<? extends T> items) throws Exception {
+        for (T item : items) {
+            put(lineAggregator.aggregate(item).getBytes(charset));
+            put(separator);
+        }
+        written += items.size();
+    }
+
+    /**
+     * Writes the chunk to the file, ending the compressed member, and saves the position reached.
+     */
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        super.update(executionContext);
+        if (channel == null) {
+            return;
+        }
+        try {
+            checkpoint();
+            if (forceInterval > 0 && ++chunks % forceInterval == 0) {
+                channel.force(false);
+            }
+            executionContext.putLong(getExecutionContextKey(POSITION_KEY), channel.position());
+            executionContext.putLong(getExecutionContextKey(WRITTEN_KEY), written);
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to write " + resource.getDescription(), e);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        super.close();
+        if (channel == null) {
+            return;
+        }
+        try {
+            checkpoint();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to write " + resource.getDescription(), e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                /* already reported the failure to write, if there was one */
+            }
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            drain();
+            if (bytes.length > buffer.capacity()) {
+                output(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    private void checkpoint() throws IOException {
+        drain();
+        if (compressor != null) {
+            compressor.close();
+            compressor = null;
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        output(buffer);
+        buffer.clear();
+    }
+
+    private void output(ByteBuffer bytes) throws IOException {
+        if (!bytes.hasRemaining()) {
+            return;
+        }
+        if (compression == Compression.NONE) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            return;
+        }
+        if (compressor == null) {
+            compressor = compression.compress(unclosable(Channels.newOutputStream(channel)));
+        }
+        compressor.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        bytes.position(bytes.limit());
+    }
+
+    /**
+     * Ending a compressed member closes the stream it is written to, which must not close the channel.
+     */
+    private static OutputStream unclosable(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+}
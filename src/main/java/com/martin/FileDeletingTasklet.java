@@ -22,6 +22,8 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class FileDeletingTasklet implements Tasklet {
     private static final Logger log = LoggerFactory.getLogger(FileDeletingTasklet.class);
@@ -30,8 +32,26 @@ public class FileDeletingTasklet implements Tasklet {
 
     @Override
     public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        /* the pattern matches the outputs when it has a wildcard, the output names of the pattern when it is a name */
+        Set<String> outputPatterns = new LinkedHashSet<>();
+        outputPatterns.add(pattern);
+        for (OutputFormat format : OutputFormat.values()) {
+            outputPatterns.add(CustomMultiResourcePartitioner.outputFilename(pattern, format, ""));
+        }
+        for (Compression compression : Compression.values()) {
+            for (String outputPattern : outputPatterns) {
+                String outputs = outputPattern + compression.getExtension();
+                delete(outputs);
+                /* and any parts left behind by byte range partitions of a previous run */
+                delete(outputs + CustomMultiResourcePartitioner.PART_SUFFIX + "*");
+            }
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    private void delete(String glob) throws IOException {
         try (DirectoryStream<Path> fileStream = Files.newDirectoryStream(
-                Paths.get(location), pattern)) {
+                Paths.get(location), glob)) {
             fileStream.forEach(path -> {
                 if (Files.isRegularFile(path)) {
                     try {
@@ -43,11 +63,11 @@ public class FileDeletingTasklet implements Tasklet {
                 }
             });
         }
-        return RepeatStatus.FINISHED;
     }
 
     public void setDirectoryResource(String location, String pattern) {
         this.location = location;
-        this.pattern = pattern;
+        /* the outputs of compressed inputs are named as those of uncompressed ones */
+        this.pattern = Compression.stripExtension(pattern);
     }
 }
@@ -0,0 +1,42 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Appends each notification to a local file as a line of the recipient, a tab and the files separated by commas, a
+ * stand-in for a mail server that can be inspected once the job has run.
+ */
+public class FileNotificationTransport implements NotificationTransport {
+
+    private final Path file;
+
+    /**
+     * @param file the file to append to, created if it does not exist
+     */
+    public FileNotificationTransport(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void send(String recipient, List<String> files) throws IOException {
+        String line = recipient + "\t" + String.join(",", files);
+        Files.write(file, Collections.singletonList(line), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
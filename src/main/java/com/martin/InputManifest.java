@@ -0,0 +1,172 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The input files processed by earlier runs, kept in the output directory so an incremental run only processes the
+ * inputs that are new or have changed since. Each entry is the input's path, size, modification time, CRC32C of its
+ * content and the name of its output.
+ * <p>
+ * A run writes the manifest it will have made as {@value #PENDING}, which only replaces {@value #MANIFEST} once the job
+ * has processed every changed input, see {@link #commit(Path)}. A failed run leaves the previous manifest, so the next
+ * run processes the same inputs again.
+ */
+public final class InputManifest {
+
+    static final String MANIFEST = ".manifest";
+    static final String PENDING = ".manifest.pending";
+
+    private static final String HEADER = "# path\tsize\tmtime\tcrc32c\toutput";
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * @param file the manifest file
+     * @return its entries, none if there is no file
+     */
+    public static InputManifest read(Path file) throws IOException {
+        InputManifest manifest = new InputManifest();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 5) {
+                    throw new IOException("Malformed manifest entry in " + file + ": " + line);
+                }
+                manifest.put(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3], 16), fields[4]));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a temporary file then moves it into place, so it is never seen half written.
+     *
+     * @param file the manifest file
+     */
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                writer.write(entry.path + "\t" + entry.size + "\t" + entry.modified + "\t"
+                        + Long.toHexString(entry.hash) + "\t" + entry.output);
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Makes the pending manifest of a run the manifest, if the run was incremental.
+     *
+     * @param directory the output directory
+     */
+    public static void commit(Path directory) throws IOException {
+        Path pending = directory.resolve(PENDING);
+        if (Files.exists(pending)) {
+            Files.move(pending, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * @param file the file to hash
+     * @return the CRC32C of its content, which the JVM computes with the processor's CRC instructions where it can
+     */
+    public static long hash(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.path, entry);
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * An input file as it was when it was processed.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long hash;
+        private final String output;
+
+        public Entry(String path, long size, long modified, long hash, String output) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.output = output;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.listener.JobExecutionListenerSupport;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -16,13 +17,26 @@ public class JobNotificationListener extends JobExecutionListenerSupport {
 
 	@Autowired
 	private ThreadPoolTaskExecutor taskExecutor;
+	@Autowired
+	private NotificationDispatcher notificationDispatcher;
 
 	@Override
 	public void afterJob(JobExecution jobExecution) {
+		try {
+			/* the job's files are ready once they have been notified */
+			notificationDispatcher.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 		if(jobExecution.getStatus() == BatchStatus.COMPLETED) {
 			log.info("!!! JOB FINISHED !!!");
 		}
-		taskExecutor.shutdown();
+		/* the executor is shared by every job when watching the input directory or serving submissions */
+		JobParameters parameters = jobExecution.getJobParameters();
+		if (!"true".equals(parameters.getString(DirectoryWatcher.WATCH_PARAMETER))
+				&& !"true".equals(parameters.getString(JobServer.SERVE_PARAMETER))) {
+			taskExecutor.shutdown();
+		}
 	}
 
 	@Override
@@ -0,0 +1,371 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the application running and launches a job for each submission it is sent over HTTP, so many small jobs are
+ * run by one warm JVM rather than each paying for starting one.
+ * <p>
+ * POST /jobs with input.dir, filename.pattern and output.dir, and any of the parameters that tune how a job runs, as a
+ * query string or a form, launches a job and answers 202 with its id. Any other parameter is refused, a submission
+ * does not choose the files the job writes outside its output directory nor whether it starts worker JVMs. GET /jobs/{id} reports the job's status and counts and GET /jobs
+ * those of the jobs submitted most recently. Each job has the parameters the application was started with, those of
+ * its submission and a run.id of its own. Jobs run on threads of their own and their partitions share the
+ * taskExecutor, each job running at most its quota of partitions at once, set with partition.concurrency. A
+ * submission may ask for fewer partitions at once than the quota, not more.
+ */
+public class JobServer implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(JobServer.class);
+
+    static final String SERVE_PARAMETER = "serve";
+
+    private static final String CONCURRENCY_PARAMETER = "partition.concurrency";
+    private static final String[] REQUIRED_PARAMETERS = {"input.dir", "filename.pattern", "output.dir"};
+    /* the file names a submission may set, of files in its output directory */
+    private static final String[] NAME_PARAMETERS = {"aggregate.file", "sort.file"};
+    private static final Set<String> TUNING_PARAMETERS = Set.of(
+            "aggregate", "commit.adaptive", "commit.interval", "commit.max", "commit.min", "commit.target.ms",
+            "incremental", "incremental.rebuild", "log.sample", "output.buffer", "output.compression",
+            "output.direct", "output.force", "output.format", "partition.concurrency", "partition.executor",
+            "pipeline.buffer", "processor.inplace", "reader.type", "schedule.longest.first", "sort", "sort.buffer.mb",
+            "sort.fanin", "split.threshold", "step.mode", "writer.type");
+    private static final int HISTORY = 100;
+
+    private final JobLauncher jobLauncher;
+    private final Job job;
+    private final JobExplorer jobExplorer;
+    private final int quota;
+    private final AtomicLong runId = new AtomicLong(System.currentTimeMillis());
+
+    /* the ids of the jobs submitted most recently, newest first */
+    private final Deque<Long> submitted = new ConcurrentLinkedDeque<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private JobParameters parameters;
+    private byte[] token;
+    private volatile HttpServer server;
+
+    /**
+     * @param jobLauncher launches the jobs, on threads of their own
+     * @param job         the job to launch
+     * @param jobExplorer reads the status of the jobs
+     * @param quota       the most partitions a job runs at once unless serve.concurrency is set
+     */
+    public JobServer(JobLauncher jobLauncher, Job job, JobExplorer jobExplorer, int quota) {
+        this.jobLauncher = jobLauncher;
+        this.job = job;
+        this.jobExplorer = jobExplorer;
+        this.quota = quota;
+    }
+
+    /**
+     * Serves submissions until the application stops. serve.address (127.0.0.1) and serve.port (8090) are where to
+     * listen, serve.concurrency the quota of partitions of each job and serve.token, if set, a token each request
+     * must present as an Authorization: Bearer header.
+     *
+     * @param parameters the parameters the application was started with
+     */
+    public void serve(JobParameters parameters) throws IOException, InterruptedException {
+        this.parameters = parameters;
+        String address = parameters.getString("serve.address", "127.0.0.1");
+        int port = Integer.parseInt(parameters.getString("serve.port", "8090"));
+        int jobQuota = Integer.parseInt(parameters.getString("serve.concurrency", Integer.toString(quota)));
+        String serveToken = parameters.getString("serve.token");
+        token = serveToken == null ? null : serveToken.getBytes(StandardCharsets.UTF_8);
+
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/jobs", exchange -> handle(exchange, jobQuota));
+        server.start();
+        log.info("Accepting jobs on http://{}:{}/jobs, each running at most {} partitions at once", address,
+                server.getAddress().getPort(), jobQuota);
+        stopped.await();
+        log.info("Stopped accepting jobs");
+    }
+
+    private void handle(HttpExchange exchange, int jobQuota) throws IOException {
+        try {
+            if (!authorized(exchange)) {
+                respond(exchange, 401, error("a valid token is needed"));
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/jobs") || path.equals("/jobs/")) {
+                if (method.equals("POST")) {
+                    submit(exchange, jobQuota);
+                } else if (method.equals("GET")) {
+                    list(exchange);
+                } else {
+                    respond(exchange, 405, error(method + " is not supported"));
+                }
+            } else if (method.equals("GET")) {
+                status(exchange, path.substring(path.lastIndexOf('/') + 1));
+            } else {
+                respond(exchange, 405, error(method + " is not supported"));
+            }
+        } catch (Exception e) {
+            log.error("Failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            if (exchange.getResponseCode() < 0) {
+                respond(exchange, 500, error(e.toString()));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange, int jobQuota) throws Exception {
+        Map<String, String> submission = new LinkedHashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), submission);
+        try (InputStream body = exchange.getRequestBody()) {
+            parse(new String(body.readAllBytes(), StandardCharsets.UTF_8), submission);
+        }
+        for (String name : submission.keySet()) {
+            if (!allowed(name)) {
+                respond(exchange, 400, error(name + " is not a parameter a submission may set"));
+                return;
+            }
+        }
+        for (String name : REQUIRED_PARAMETERS) {
+            if (submission.getOrDefault(name, "").isEmpty()) {
+                respond(exchange, 400, error(name + " is required"));
+                return;
+            }
+        }
+        for (String name : new String[]{"input.dir", "output.dir"}) {
+            if (!Files.isDirectory(Paths.get(submission.get(name)))) {
+                respond(exchange, 400, error(name + " " + submission.get(name) + " is not a directory"));
+                return;
+            }
+        }
+        for (String name : NAME_PARAMETERS) {
+            String value = submission.get(name);
+            if (value != null && !isFileName(value)) {
+                respond(exchange, 400, error(name + " must be the name of a file in output.dir"));
+                return;
+            }
+        }
+        /* the worker JVMs are the server's to start, with partition.executor=process at startup */
+        if ("process".equals(submission.get("partition.executor"))) {
+            respond(exchange, 400, error("partition.executor=process is not a submission's to choose"));
+            return;
+        }
+
+        int concurrency = jobQuota;
+        if (submission.containsKey(CONCURRENCY_PARAMETER)) {
+            try {
+                int requested = Integer.parseInt(submission.get(CONCURRENCY_PARAMETER));
+                if (requested > 0) {
+                    concurrency = jobQuota > 0 ? Math.min(requested, jobQuota) : requested;
+                }
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, error(CONCURRENCY_PARAMETER + " must be a number"));
+                return;
+            }
+        }
+
+        JobParametersBuilder builder = new JobParametersBuilder(parameters);
+        submission.forEach(builder::addString);
+        JobParameters jobParameters = builder
+                .addString(CONCURRENCY_PARAMETER, Integer.toString(concurrency))
+                .addLong("run.id", runId.incrementAndGet())
+                .toJobParameters();
+
+        JobExecution execution = jobLauncher.run(job, jobParameters);
+        submitted.addFirst(execution.getId());
+        while (submitted.size() > HISTORY) {
+            submitted.pollLast();
+        }
+        log.info("Launched job execution {} for {} in {}", execution.getId(), submission.get("filename.pattern"),
+                submission.get("input.dir"));
+        exchange.getResponseHeaders().add("Location", "/jobs/" + execution.getId());
+        respond(exchange, 202, status(execution));
+    }
+
+    private void status(HttpExchange exchange, String id) throws IOException {
+        JobExecution execution = null;
+        try {
+            execution = jobExplorer.getJobExecution(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            /* not an id, not found */
+        }
+        if (execution == null) {
+            respond(exchange, 404, error("no job " + id));
+            return;
+        }
+        respond(exchange, 200, status(execution));
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (Iterator<Long> i = submitted.iterator(); i.hasNext(); ) {
+            JobExecution execution = jobExplorer.getJobExecution(i.next());
+            if (execution != null) {
+                json.append(json.length() > 1 ? "," : "").append(status(execution));
+            }
+        }
+        respond(exchange, 200, json.append(']').toString());
+    }
+
+    /**
+     * @return the status of a job and the items read and written by its partitions so far, as a JSON object
+     */
+    private static String status(JobExecution execution) {
+        long read = 0;
+        long written = 0;
+        for (StepExecution stepExecution : execution.getStepExecutions()) {
+            /* the partitions, named step:partitionN, rather than the masterStep that adds up their counts as it ends */
+            if (stepExecution.getStepName().contains(":")) {
+                read += stepExecution.getReadCount();
+                written += stepExecution.getWriteCount();
+            }
+        }
+        JobParameters jobParameters = execution.getJobParameters();
+        StringBuilder json = new StringBuilder("{");
+        field(json, "id", execution.getId());
+        field(json, "status", execution.getStatus());
+        field(json, "exitCode", execution.getExitStatus().getExitCode());
+        field(json, "inputDir", jobParameters.getString("input.dir"));
+        field(json, "filenamePattern", jobParameters.getString("filename.pattern"));
+        field(json, "outputDir", jobParameters.getString("output.dir"));
+        field(json, "concurrency", jobParameters.getString(CONCURRENCY_PARAMETER));
+        field(json, "created", execution.getCreateTime());
+        field(json, "started", execution.getStartTime());
+        field(json, "ended", execution.getEndTime());
+        field(json, "read", read);
+        field(json, "written", written);
+        if (execution.getStatus() == BatchStatus.FAILED) {
+            field(json, "failure", execution.getExitStatus().getExitDescription());
+        }
+        return json.append('}').toString();
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{");
+        field(json, "error", message);
+        return json.append('}').toString();
+    }
+
+    private static void field(StringBuilder json, String name, Object value) {
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        json.append('"').append(name).append("\":");
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number) {
+            json.append(value);
+        } else {
+            String text = value instanceof Date ? ((Date) value).toInstant().toString() : value.toString();
+            json.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < ' ') {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+
+    private static boolean allowed(String name) {
+        return TUNING_PARAMETERS.contains(name) || Arrays.asList(REQUIRED_PARAMETERS).contains(name)
+                || Arrays.asList(NAME_PARAMETERS).contains(name);
+    }
+
+    /**
+     * @return whether the value is a plain file name, without a directory
+     */
+    private static boolean isFileName(String value) {
+        if (value.isEmpty() || value.equals(".") || value.equals("..")) {
+            return false;
+        }
+        Path path = Paths.get(value);
+        return path.getNameCount() == 1 && !path.isAbsolute() && path.getFileName().toString().equals(value);
+    }
+
+    private static void parse(String form, Map<String, String> into) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                into.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        if (token == null) {
+            return true;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && authorization.startsWith("Bearer ") && MessageDigest.isEqual(token,
+                authorization.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (server != null) {
+            server.stop(0);
+        }
+        stopped.countDown();
+    }
+}
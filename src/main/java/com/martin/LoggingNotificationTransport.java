@@ -0,0 +1,32 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Logs each notification rather than sending it, the default transport.
+ */
+public class LoggingNotificationTransport implements NotificationTransport {
+    private static final Logger log = LoggerFactory.getLogger(LoggingNotificationTransport.class);
+
+    @Override
+    public void send(String recipient, List<String> files) {
+        if (files.size() == 1) {
+            log.info("Send email to {} saying file {} is ready.", recipient, files.get(0));
+        } else {
+            log.info("Send email to {} saying files {} are ready.", recipient, files);
+        }
+    }
+}
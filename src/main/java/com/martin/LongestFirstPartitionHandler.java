@@ -0,0 +1,167 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.partition.support.TaskExecutorPartitionHandler;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link TaskExecutorPartitionHandler} that can hand out the partitions largest first and cap the number running at
+ * once. Rather than one task per partition, a fixed number of worker tasks pull the next partition from a shared queue
+ * as they become idle so a large file that happens to be last in the set no longer becomes the long tail.
+ * <p>
+ * The size of a partition is the {@link CustomMultiResourcePartitioner#SIZE_KEY_NAME} the partitioner stores in its
+ * context. With neither option set the partitions are handled exactly as by the superclass.
+ * <p>
+ * Should a worker task fail, the others finish the partitions they are running but take no more, and are waited for
+ * before the failure is rethrown, so no partition is still writing when the manager step ends. The partitions never
+ * taken from the queue are marked failed in the job repository, so a restart runs them.
+ */
+public class LongestFirstPartitionHandler extends TaskExecutorPartitionHandler {
+    private static final Logger log = LoggerFactory.getLogger(LongestFirstPartitionHandler.class);
+
+    private TaskExecutor taskExecutor;
+    private JobRepository jobRepository;
+    private boolean longestFirst;
+    private int concurrency;
+
+    @Override
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        super.setTaskExecutor(taskExecutor);
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * @param jobRepository where the partitions never started are marked failed should a worker task fail
+     */
+    public void setJobRepository(JobRepository jobRepository) {
+        this.jobRepository = jobRepository;
+    }
+
+    /**
+     * @param longestFirst start the partitions in descending order of size
+     */
+    public void setLongestFirst(boolean longestFirst) {
+        this.longestFirst = longestFirst;
+    }
+
+    /**
+     * @param concurrency the most partitions to run at once, zero or less for no limit other than the task executor's
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    protected Set<StepExecution> doHandle(StepExecution managerStepExecution,
+                                          Set<StepExecution> partitionStepExecutions) throws Exception {
+        if (!longestFirst && concurrency <= 0) {
+            return super.doHandle(managerStepExecution, partitionStepExecutions);
+        }
+
+        List<StepExecution> ordered = new ArrayList<>(partitionStepExecutions);
+        if (longestFirst) {
+            ordered.sort(Comparator.comparingLong(LongestFirstPartitionHandler::size).reversed());
+        }
+        Queue<StepExecution> queue = new ConcurrentLinkedQueue<>(ordered);
+
+        int workers = concurrency > 0 ? Math.min(concurrency, ordered.size()) : ordered.size();
+        List<FutureTask<Void>> tasks = new ArrayList<>(workers);
+        /* once a worker has failed the others finish their partitions but take no more */
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < workers; i++) {
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                StepExecution stepExecution = null;
+                try {
+                    while (!failed.get() && (stepExecution = queue.poll()) != null) {
+                        getStep().execute(stepExecution);
+                    }
+                } catch (Throwable e) {
+                    failed.set(true);
+                    if (stepExecution != null && stepExecution.getStatus().isLessThan(BatchStatus.STOPPING)) {
+                        fail(stepExecution, "Failed to run: " + e);
+                    }
+                    throw e;
+                }
+                return null;
+            });
+            try {
+                taskExecutor.execute(task);
+                tasks.add(task);
+            } catch (TaskRejectedException e) {
+                /* the workers already running drain the queue between them */
+                log.warn("Partition worker {} of {} rejected by the task executor", i + 1, workers);
+            }
+        }
+        if (tasks.isEmpty()) {
+            throw new TaskRejectedException("No partition workers could be started");
+        }
+
+        ExecutionException failure = null;
+        for (FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            abandon(queue);
+            throw failure;
+        }
+        return new LinkedHashSet<>(ordered);
+    }
+
+    /**
+     * Fails the partitions left in the queue, which were never started, as they would otherwise stay STARTING.
+     */
+    private void abandon(Queue<StepExecution> queue) {
+        StepExecution stepExecution;
+        while ((stepExecution = queue.poll()) != null) {
+            log.warn("{} not started as a partition worker failed", stepExecution.getStepName());
+            fail(stepExecution, "Not started, a partition worker failed");
+        }
+    }
+
+    private void fail(StepExecution stepExecution, String description) {
+        stepExecution.setStatus(BatchStatus.FAILED);
+        stepExecution.setExitStatus(ExitStatus.FAILED.addExitDescription(description));
+        stepExecution.setEndTime(new Date());
+        if (jobRepository != null) {
+            jobRepository.update(stepExecution);
+        }
+    }
+
+    static long size(StepExecution stepExecution) {
+        return stepExecution.getExecutionContext().getLong(CustomMultiResourcePartitioner.SIZE_KEY_NAME, 0L);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import static com.martin.CustomMultiResourcePartitioner.PART_SUFFIX;
+
+/**
+ * The first step of an incremental run, in place of the {@link FileDeletingTasklet}. Compares the inputs with the
+ * {@link InputManifest} of the previous run: an input whose size and modification time are unchanged is not read at
+ * all, any other is hashed, on the task executor so several are hashed at once, and is unchanged if its content is.
+ * <p>
+ * The outputs of changed inputs and of inputs that no longer exist are deleted, the others are left alone. The paths
+ * of the changed inputs are put in the job's context under {@value #CHANGED_INPUTS_KEY} for the partitioner and the
+ * manifest the run will have made is written as pending.
+ * <p>
+ * A rebuild ignores the previous manifest, so every input is processed.
+ */
+public class ManifestScanTasklet implements Tasklet {
+    private static final Logger log = LoggerFactory.getLogger(ManifestScanTasklet.class);
+
+    static final String CHANGED_INPUTS_KEY = "changedInputs";
+
+    private Resource[] inputs = new Resource[0];
+    private Path outputDirectory;
+    private OutputFormat outputFormat = OutputFormat.CSV;
+    private String outputExtension = "";
+    private boolean rebuild;
+    private AsyncTaskExecutor taskExecutor;
+
+    public void setInputs(Resource[] inputs) {
+        this.inputs = inputs;
+    }
+
+    public void setOutputDirectory(String outputDirectory) {
+        this.outputDirectory = Paths.get(outputDirectory);
+    }
+
+    /**
+     * @param outputFormat the format of the output files, as the partitioner has it
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * @param outputExtension appended to the output filenames, as the partitioner does
+     */
+    public void setOutputExtension(String outputExtension) {
+        this.outputExtension = outputExtension;
+    }
+
+    /**
+     * @param rebuild process every input, whatever the manifest says
+     */
+    public void setRebuild(boolean rebuild) {
+        this.rebuild = rebuild;
+    }
+
+    /**
+     * @param taskExecutor hashes the inputs
+     */
+    public void setTaskExecutor(AsyncTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        InputManifest previous = rebuild ? new InputManifest()
+                : InputManifest.read(outputDirectory.resolve(InputManifest.MANIFEST));
+        InputManifest next = new InputManifest();
+
+        Files.createDirectories(outputDirectory);
+        Map<Path, Future<Long>> hashes = new LinkedHashMap<>();
+        for (Resource input : inputs) {
+            Path path = input.getFile().toPath().toAbsolutePath();
+            InputManifest.Entry entry = previous.get(path.toString());
+            if (entry != null && entry.getSize() == Files.size(path)
+                    && entry.getModified() == Files.getLastModifiedTime(path).toMillis()
+                    && isOutput(entry, path)) {
+                next.put(entry);
+            } else {
+                hashes.put(path, taskExecutor.submit(() -> InputManifest.hash(path)));
+            }
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<Path, Future<Long>> hash : hashes.entrySet()) {
+            Path path = hash.getKey();
+            String output = CustomMultiResourcePartitioner.outputFilename(path.getFileName().toString(),
+                    outputFormat, outputExtension);
+            InputManifest.Entry entry = new InputManifest.Entry(path.toString(), Files.size(path),
+                    Files.getLastModifiedTime(path).toMillis(), hash.getValue().get(), output);
+            InputManifest.Entry old = previous.get(entry.getPath());
+            next.put(entry);
+            if (old != null && old.getHash() == entry.getHash() && isOutput(old, path)) {
+                /* touched but the content is the same */
+                continue;
+            }
+            if (old != null) {
+                deleteOutput(old.getOutput());
+            }
+            deleteOutput(output);
+            changed.add(entry.getPath());
+        }
+
+        int removed = 0;
+        for (InputManifest.Entry old : previous.entries()) {
+            if (next.get(old.getPath()) == null) {
+                if (Files.exists(Paths.get(old.getPath()))) {
+                    /* not one of this run's inputs, left as it was */
+                    next.put(old);
+                } else {
+                    deleteOutput(old.getOutput());
+                    removed++;
+                }
+            }
+        }
+
+        next.write(outputDirectory.resolve(InputManifest.PENDING));
+        chunkContext.getStepContext().getStepExecution().getJobExecution().getExecutionContext()
+                .put(CHANGED_INPUTS_KEY, changed);
+        log.info("{} of {} inputs new or changed, {} hashed, outputs of {} removed inputs deleted", changed.size(),
+                inputs.length, hashes.size(), removed);
+        return RepeatStatus.FINISHED;
+    }
+
+    /**
+     * @return whether the output of the entry is still there and named as this run would name it
+     */
+    private boolean isOutput(InputManifest.Entry entry, Path input) {
+        return entry.getOutput().equals(CustomMultiResourcePartitioner.outputFilename(input.getFileName().toString(),
+                outputFormat, outputExtension)) && Files.exists(outputDirectory.resolve(entry.getOutput()));
+    }
+
+    private void deleteOutput(String output) throws IOException {
+        Files.deleteIfExists(outputDirectory.resolve(output));
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(outputDirectory, output + PART_SUFFIX + "*")) {
+            for (Path part : parts) {
+                Files.delete(part);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.FlatFileParseException;
+import org.springframework.batch.item.file.LineCallbackHandler;
+import org.springframework.batch.item.file.transform.DelimitedLineTokenizer;
+import org.springframework.batch.item.file.transform.FieldSet;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads Person items from a comma delimited file, firstName then lastName, by mapping the file into memory and
+ * scanning the bytes for the delimiter and newline. Unlike a {@link org.springframework.batch.item.file.FlatFileItemReader}
+ * there is no line String, no {@link FieldSet} and no reflection for the common case, the two fields are decoded
+ * straight from the mapped bytes into the Person.
+ * <p>
+ * It behaves as the FlatFileItemReader configured in the {@link BatchConfiguration} did: header lines are passed to the
+ * skipped lines callback, lines starting with # are ignored, fields are trimmed and the item count is saved in the
+ * {@link org.springframework.batch.item.ExecutionContext} for restart. Lines that need more than the fast path, quoted
+ * fields or the wrong number of fields, are handed to a {@link DelimitedLineTokenizer} so they are parsed, or rejected,
+ * exactly as before.
+ * <p>
+ * The file is mapped a window at a time so files larger than 2GB can be read. A reader can be limited to a byte range
+ * of the file, which must start at the beginning of a line.
+ * <p>
+ * Besides the item count, the byte offset of the next line and its line number are saved, so a restart starts reading
+ * at that offset rather than reading and discarding every line before it. The header is not read again, the
+ * {@link FileCallbackHandler} kept it in the same context. Should the offset not be the start of a line in the file,
+ * as when the file has changed, the reader falls back to skipping the saved number of items.
+ */
+public class MappedPersonItemReader extends AbstractItemCountingItemStreamItemReader<Person> {
+    private static final Logger log = LoggerFactory.getLogger(MappedPersonItemReader.class);
+
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final byte COMMENT = '#';
+    private static final String OFFSET_KEY = "read.offset";
+    private static final String LINE_KEY = "read.line";
+
+    private Resource resource;
+    private long startOffset = 0;
+    private long endOffset = -1;
+    private int linesToSkip = 0;
+    private LineCallbackHandler skippedLinesCallback;
+    private Charset charset = Charset.defaultCharset();
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private final DelimitedLineTokenizer tokenizer = new DelimitedLineTokenizer();
+    private final PersonFieldSetMapper fieldSetMapper = new PersonFieldSetMapper("firstName", "lastName");
+
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long end;
+    private int lineCount;
+    private byte[] line = new byte[256];
+
+    /* the saved offset and line number to restart from, the offset -1 when not restarting from an offset */
+    private long restartOffset = -1;
+    private int restartLine;
+
+    public MappedPersonItemReader() {
+        setName(ClassUtils.getShortName(MappedPersonItemReader.class));
+        tokenizer.setNames("firstName", "lastName");
+    }
+
+    /**
+     * @param resource the file to read
+     */
+    public void setResource(Resource resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * Limits the reader to a byte range of the file.
+     *
+     * @param startOffset the offset of the first line to read
+     * @param endOffset   the offset just after the last line to read
+     */
+    public void setRange(long startOffset, long endOffset) {
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * @param linesToSkip the number of header lines to pass to the callback rather than read as items
+     */
+    public void setLinesToSkip(int linesToSkip) {
+        this.linesToSkip = linesToSkip;
+    }
+
+    /**
+     * @param skippedLinesCallback called with each of the skipped header lines
+     */
+    public void setSkippedLinesCallback(LineCallbackHandler skippedLinesCallback) {
+        this.skippedLinesCallback = skippedLinesCallback;
+    }
+
+    /**
+     * @param charset the encoding of the file, the platform default if not set
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * @param windowSize the most bytes of the file mapped at once, also the longest line that can be read
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        restartOffset = executionContext.getLong(getExecutionContextKey(OFFSET_KEY), -1L);
+        restartLine = executionContext.getInt(getExecutionContextKey(LINE_KEY), 0);
+        super.open(executionContext);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        super.update(executionContext);
+        if (isSaveState()) {
+            executionContext.putLong(getExecutionContextKey(OFFSET_KEY), position);
+            executionContext.putInt(getExecutionContextKey(LINE_KEY), lineCount);
+        }
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        try {
+            channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to open " + resource.getDescription(), e);
+        }
+        end = endOffset < 0 ? channel.size() : Math.min(endOffset, channel.size());
+        position = startOffset;
+        window = null;
+        lineCount = 0;
+
+        if (restartOffset >= 0) {
+            if (isLineStart(restartOffset)) {
+                log.info("Restarting {} at byte {}, line {}", resource.getDescription(), restartOffset, restartLine);
+                position = restartOffset;
+                lineCount = restartLine;
+                return;
+            }
+            log.warn("Byte {} is not the start of a line of {}, skipping the items read instead", restartOffset,
+                    resource.getDescription());
+            restartOffset = -1;
+        }
+
+        for (int i = 0; i < linesToSkip; i++) {
+            int length = nextLine();
+            if (length < 0) {
+                break;
+            }
+            if (skippedLinesCallback != null) {
+                skippedLinesCallback.handleLine(new String(line, 0, length, charset));
+            }
+        }
+    }
+
+    @Override
+    protected Person doRead() throws Exception {
+        int length;
+        do {
+            length = nextLine();
+            if (length < 0) {
+                return null;
+            }
+        } while (length > 0 && line[0] == COMMENT);
+        return mapLine(length);
+    }
+
+    /**
+     * Skips lines on restart without decoding them, unless the reader has already moved to the saved offset.
+     */
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+        if (restartOffset >= 0) {
+            return;
+        }
+        for (int i = 0; i < itemIndex; i++) {
+            int length;
+            do {
+                length = nextLine();
+                if (length < 0) {
+                    return;
+                }
+            } while (length > 0 && line[0] == COMMENT);
+        }
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        window = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Copies the next line, without its line terminator, into the line buffer.
+     *
+     * @return the length of the line or -1 at the end of the file or range
+     */
+    private int nextLine() throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        while (true) {
+            if (window == null || position >= windowStart + window.limit()) {
+                map(position);
+            }
+            int from = (int) (position - windowStart);
+            int limit = window.limit();
+            int i = from;
+            while (i < limit && window.get(i) != '\n') {
+                i++;
+            }
+
+            if (i < limit || windowStart + limit >= end) {
+                int length = i - from;
+                position = windowStart + Math.min(i + 1, limit);
+                lineCount++;
+                if (line.length < length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                window.position(from);
+                window.get(line, 0, length);
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                return length;
+            }
+
+            if (from == 0) {
+                throw new FlatFileParseException("Line longer than " + windowSize + " bytes at line: " + (lineCount + 1)
+                        + " in resource=[" + resource.getDescription() + "]", "", lineCount + 1);
+            }
+            /* the line runs past the end of the window, map the next window from the start of the line */
+            map(position);
+        }
+    }
+
+    private boolean isLineStart(long offset) throws IOException {
+        if (offset < startOffset || offset > end) {
+            return false;
+        }
+        if (offset == startOffset) {
+            return true;
+        }
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        return channel.read(previous, offset - 1) == 1 && previous.get(0) == '\n';
+    }
+
+    private void map(long offset) throws IOException {
+        windowStart = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, end - offset));
+    }
+
+    /**
+     * Maps a line of exactly two unquoted fields straight from the bytes, anything else goes through the tokenizer.
+     */
+    private Person mapLine(int length) {
+        int comma = -1;
+        for (int i = 0; i < length; i++) {
+            byte b = line[i];
+            if (b == ',') {
+                if (comma >= 0) {
+                    return tokenize(length);
+                }
+                comma = i;
+            } else if (b == '"') {
+                return tokenize(length);
+            }
+        }
+        if (comma < 0) {
+            return tokenize(length);
+        }
+
+        Person person = new Person();
+        person.setFirstName(trimmed(0, comma));
+        person.setLastName(trimmed(comma + 1, length));
+        return person;
+    }
+
+    private String trimmed(int from, int to) {
+        while (from < to && (line[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (line[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        return new String(line, from, to - from, charset);
+    }
+
+    private Person tokenize(int length) {
+        String input = new String(line, 0, length, charset);
+        try {
+            return fieldSetMapper.mapFieldSet(tokenizer.tokenize(input));
+        } catch (Exception e) {
+            throw new FlatFileParseException("Parsing error at line: " + lineCount + " in resource=["
+                    + resource.getDescription() + "], input=[" + input + "]", e, input, lineCount);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics, in the Prometheus text format, to the file named by the metrics.file job parameter every
+ * metrics.interval.ms while the job runs and once more when it ends. The file is replaced atomically so it can be
+ * scraped, or tailed, at any time during a live run.
+ * <p>
+ * The meters of each partition are removed from the registry once the job's last report is written, so a JVM that
+ * runs job after job, watching a directory or serving submissions, does not keep those of every file it has read.
+ */
+public class MetricsFileReporter implements JobExecutionListener {
+    private static final Logger log = LoggerFactory.getLogger(MetricsFileReporter.class);
+
+    static final String FILE_PARAMETER = "metrics.file";
+    static final String INTERVAL_PARAMETER = "metrics.interval.ms";
+
+    private final PrometheusMeterRegistry registry;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-file-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, ScheduledFuture<?>> reports = new ConcurrentHashMap<>();
+    private final Map<Long, List<Meter>> partitionMeters = new ConcurrentHashMap<>();
+
+    public MetricsFileReporter(PrometheusMeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        String file = jobExecution.getJobParameters().getString(FILE_PARAMETER);
+        if (file == null) {
+            return;
+        }
+        long interval = Long.parseLong(jobExecution.getJobParameters().getString(INTERVAL_PARAMETER, "10000"));
+        Path path = Paths.get(file);
+        reports.put(jobExecution.getId(),
+                scheduler.scheduleAtFixedRate(() -> write(path), interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        ScheduledFuture<?> report = reports.remove(jobExecution.getId());
+        if (report != null) {
+            report.cancel(false);
+            write(Paths.get(jobExecution.getJobParameters().getString(FILE_PARAMETER)));
+        }
+        List<Meter> meters = partitionMeters.remove(jobExecution.getId());
+        if (meters != null) {
+            meters.forEach(Metrics.globalRegistry::remove);
+        }
+    }
+
+    /**
+     * Removes the meters of a partition that has ended after the job's last report, or at once when the job is not
+     * reported from this JVM, as in a partition worker.
+     *
+     * @param jobExecutionId the partition's job execution
+     * @param meters the partition's meters
+     */
+    public void release(long jobExecutionId, Collection<Meter> meters) {
+        if (reports.containsKey(jobExecutionId)) {
+            partitionMeters.computeIfAbsent(jobExecutionId, id -> new CopyOnWriteArrayList<>()).addAll(meters);
+        } else {
+            meters.forEach(Metrics.globalRegistry::remove);
+        }
+    }
+
+    private void write(Path path) {
+        try {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, registry.scrape().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write metrics to {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the "file is ready" notifications off the partition threads. {@link #fileReady(String, String)} only queues
+ * the notification, a thread of the dispatcher's own collects the files for each recipient and sends them in a single
+ * notification once the first of them has waited the window or there are batch size of them, whichever is sooner.
+ * <p>
+ * A failed send is retried, after the retry delay and then twice as long each time, until it has been tried max
+ * attempts times, after which it is logged and dropped. A notification that finds the queue full is also logged and
+ * dropped rather than holding up the step. {@link #flush()} sends everything queued without waiting for the window,
+ * at the end of a job and when the application closes.
+ */
+public class NotificationDispatcher implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    private final NotificationTransport transport;
+    private final BlockingQueue<Object> queue;
+    private final long windowNanos;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final Thread sender;
+    private volatile boolean running = true;
+
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter dropped;
+
+    /**
+     * @param transport        delivers the coalesced notifications
+     * @param capacity         the most notifications queued, further ones are dropped
+     * @param windowMillis     how long a recipient's first notification waits for others to join it
+     * @param batchSize        the most files in one notification
+     * @param maxAttempts      the most times a notification is tried
+     * @param retryDelayMillis the wait before the first retry, doubled for each one after it
+     */
+    public NotificationDispatcher(NotificationTransport transport, int capacity, long windowMillis, int batchSize,
+                                  int maxAttempts, long retryDelayMillis) {
+        Assert.isTrue(batchSize > 0 && maxAttempts > 0, "The batch size and attempts must be positive");
+        this.transport = transport;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.sent = Metrics.counter("notifications.sent");
+        this.failed = Metrics.counter("notifications.failed");
+        this.dropped = Metrics.counter("notifications.dropped");
+
+        sender = new Thread(this::run, "notifier");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Queues a notification without waiting.
+     *
+     * @param recipient the email address to notify
+     * @param file      the output file that is ready
+     * @return false if the queue was full and the notification dropped
+     */
+    public boolean fileReady(String recipient, String file) {
+        if (running && queue.offer(new Notification(recipient, file))) {
+            return true;
+        }
+        dropped.increment();
+        log.error("Dropped the notification to {} that file {} is ready, the queue is full or closed", recipient, file);
+        return false;
+    }
+
+    /**
+     * Sends every notification queued so far, waiting until they have been sent or have failed.
+     */
+    public void flush() throws InterruptedException {
+        if (!sender.isAlive()) {
+            return;
+        }
+        CountDownLatch flushed = new CountDownLatch(1);
+        queue.put(flushed);
+        while (!flushed.await(1, TimeUnit.SECONDS)) {
+            if (!sender.isAlive()) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        flush();
+        running = false;
+        sender.interrupt();
+        sender.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void run() {
+        /* the files waiting for each recipient, the earliest first */
+        Map<String, Batch> pending = new LinkedHashMap<>();
+        while (running) {
+            Object event;
+            try {
+                if (pending.isEmpty()) {
+                    event = queue.take();
+                } else {
+                    long wait = pending.values().iterator().next().due - System.nanoTime();
+                    event = queue.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (event instanceof Notification) {
+                Notification notification = (Notification) event;
+                Batch batch = pending.computeIfAbsent(notification.recipient,
+                        recipient -> new Batch(System.nanoTime() + windowNanos));
+                batch.files.add(notification.file);
+                if (batch.files.size() >= batchSize) {
+                    send(notification.recipient, pending.remove(notification.recipient));
+                }
+            } else if (event instanceof CountDownLatch) {
+                for (Map.Entry<String, Batch> entry : pending.entrySet()) {
+                    send(entry.getKey(), entry.getValue());
+                }
+                pending.clear();
+                ((CountDownLatch) event).countDown();
+            }
+
+            long now = System.nanoTime();
+            for (Iterator<Map.Entry<String, Batch>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<String, Batch> entry = i.next();
+                if (entry.getValue().due - now > 0) {
+                    break;
+                }
+                i.remove();
+                send(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!pending.isEmpty()) {
+            log.warn("Stopped with notifications for {} recipients unsent", pending.size());
+        }
+    }
+
+    private void send(String recipient, Batch batch) {
+        List<String> files = new ArrayList<>(batch.files);
+        long delay = retryDelayMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transport.send(recipient, files);
+                sent.increment(files.size());
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    failed.increment(files.size());
+                    log.error("Failed to notify {} that files {} are ready after {} attempts", recipient, files,
+                            attempt, e);
+                    return;
+                }
+                log.warn("Failed to notify {}, attempt {} of {}: {}", recipient, attempt, maxAttempts, e.toString());
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                failed.increment(files.size());
+                log.error("Interrupted notifying {} that files {} are ready", recipient, files);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            delay *= 2;
+        }
+    }
+
+    private static class Notification {
+        final String recipient;
+        final String file;
+
+        Notification(String recipient, String file) {
+            this.recipient = recipient;
+            this.file = file;
+        }
+    }
+
+    private static class Batch {
+        final long due;
+        final Set<String> files = new LinkedHashSet<>();
+
+        Batch(long due) {
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import java.util.List;
+
+/**
+ * Delivers the notifications the {@link NotificationDispatcher} has coalesced, one call per recipient for all the
+ * files that became ready for it within the dispatcher's window. Called on the dispatcher's thread only, a call may
+ * block, e.g. on an SMTP or HTTP server, and a failed call is retried by the dispatcher.
+ */
+public interface NotificationTransport {
+
+    /**
+     * @param recipient the email address to notify
+     * @param files     the output files that are ready, at least one
+     * @throws Exception if the notification could not be delivered
+     */
+    void send(String recipient, List<String> files) throws Exception;
+}
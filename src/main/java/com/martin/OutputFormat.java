@@ -0,0 +1,64 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+/**
+ * The format of the output files, recognised by the extension that follows the -out of their names. CSV is the
+ * default, columnar files are written by the {@link ColumnarPersonItemWriter} and read by the
+ * {@link ColumnarPersonReader}, so the consumers of the output need not parse text.
+ */
+public enum OutputFormat {
+    CSV(".csv"),
+    COLUMNAR(".pcol");
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return the file extension, including the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param name csv or columnar, null for csv
+     * @return the format of that name
+     */
+    public static OutputFormat forName(String name) {
+        if (name == null) {
+            return CSV;
+        }
+        for (OutputFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format " + name + ", expected csv or columnar");
+    }
+
+    /**
+     * @param filename the name of a file, possibly compressed
+     * @return the format its extension says it has
+     */
+    public static OutputFormat forFilename(String filename) {
+        String name = Compression.stripExtension(filename);
+        for (OutputFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return CSV;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.martin.CustomMultiResourcePartitioner.PART_SUFFIX;
+
+/**
+ * Concatenates the outputs of the byte range partitions of a file, in part order, into the single output file and
+ * then deletes the parts. Runs after the masterStep so all the parts of a file are complete. Compressed parts are
+ * concatenated as they are, a file of several gzip members or zstd frames decompresses as one, as are columnar parts,
+ * each a segment of the file.
+ */
+public class PartMergingTasklet implements Tasklet {
+    private static final Logger log = LoggerFactory.getLogger(PartMergingTasklet.class);
+    private String pattern;
+    private String location;
+    private NotificationDispatcher notificationDispatcher;
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        /* the pattern matches the parts of csv outputs when it has a wildcard, the output names of the pattern match
+        them when it is a name, as when watching, and columnar outputs have an extension of their own */
+        Set<String> outputPatterns = new LinkedHashSet<>();
+        outputPatterns.add(pattern);
+        for (OutputFormat format : OutputFormat.values()) {
+            outputPatterns.add(CustomMultiResourcePartitioner.outputFilename(pattern, format, ""));
+        }
+        /* a part may match several of the patterns, it is merged once, in part order */
+        Map<Path, Set<Path>> outputs = new TreeMap<>();
+        for (Compression compression : Compression.values()) {
+            for (String outputPattern : outputPatterns) {
+                try (DirectoryStream<Path> fileStream = Files.newDirectoryStream(
+                        Paths.get(location), outputPattern + compression.getExtension() + PART_SUFFIX + "*")) {
+                    for (Path part : fileStream) {
+                        String name = part.getFileName().toString();
+                        Path output = part.resolveSibling(name.substring(0, name.lastIndexOf(PART_SUFFIX)));
+                        outputs.computeIfAbsent(output, k -> new TreeSet<>(
+                                Comparator.comparingInt(PartMergingTasklet::partIndex))).add(part);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Path, Set<Path>> entry : outputs.entrySet()) {
+            List<Path> parts = new ArrayList<>(entry.getValue());
+            String header = header(parts.get(0), entry.getKey().toString());
+            merge(entry.getKey(), parts);
+
+            String email = FileCallbackHandler.emailAddress(header);
+            if (email != null) {
+                notificationDispatcher.fileReady(email, entry.getKey().toString());
+            } else {
+                log.error("No header/email address in file {}", entry.getKey().getFileName());
+            }
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    private void merge(Path output, List<Path> parts) throws IOException {
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Path part : parts) {
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+        for (Path part : parts) {
+            Files.delete(part);
+        }
+        log.debug("merged {} parts into {}", parts.size(), output);
+    }
+
+    private static int partIndex(Path part) {
+        String name = part.getFileName().toString();
+        return Integer.parseInt(name.substring(name.lastIndexOf(PART_SUFFIX) + PART_SUFFIX.length()));
+    }
+
+    /**
+     * @return the header of the first part, which is the first line of a csv file
+     */
+    private static String header(Path path, String output) throws IOException {
+        if (OutputFormat.forFilename(output) == OutputFormat.COLUMNAR) {
+            return ColumnarPersonReader.readHeader(path);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Compression.forFilename(output).decompress(Files.newInputStream(path)), Charset.defaultCharset()))) {
+            return reader.readLine();
+        }
+    }
+
+    /**
+     * @param notificationDispatcher sends the notification that a merged file is ready
+     */
+    public void setNotificationDispatcher(NotificationDispatcher notificationDispatcher) {
+        this.notificationDispatcher = notificationDispatcher;
+    }
+
+    public void setDirectoryResource(String location, String pattern) {
+        this.location = location;
+        /* the outputs of compressed inputs are named as those of uncompressed ones */
+        this.pattern = Compression.stripExtension(pattern);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemProcessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the items of a partition for the job's summary as they pass, last in the chain of processors so filtered
+ * items are not counted: the items, the items of each last name and the distinct first names. The counts are held
+ * in a {@link LongAdder} for each name of a {@link ConcurrentHashMap}, which a name already seen only reads, so the
+ * threads of a pipelined partition hardly ever contend.
+ * <p>
+ * When the partition completes, its counts are written to a spill file of its own in the {@value #SPILL_DIRECTORY}
+ * directory of the output directory and only the file's path and the number of items are put in its step's context,
+ * which is saved in the job repository, so the names never are. The {@link SummaryTasklet} merges the spill files of
+ * every partition of the job, whatever thread or worker process ran it. A partition restarted part way through only
+ * counts the items after the restart, it is marked so the summary says it is incomplete.
+ * <p>
+ * One per step. When disabled it is not in the chain and the callbacks return at once.
+ */
+public class PartitionAggregator implements ItemProcessor<Person, Person>, StepExecutionListener {
+    private static final Logger log = LoggerFactory.getLogger(PartitionAggregator.class);
+
+    static final String STARTED_KEY = "aggregate.started";
+    static final String RESTARTED_KEY = "aggregate.restarted";
+    static final String FILE_KEY = "aggregate.file";
+    static final String ITEMS_KEY = "aggregate.items";
+    static final String SPILL_KEY = "aggregate.spill";
+
+    static final String SPILL_DIRECTORY = ".aggregate";
+
+    private final boolean enabled;
+    private final Path spillDirectory;
+
+    private final LongAdder items = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> lastNames = new ConcurrentHashMap<>();
+    private final Set<String> firstNames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param enabled whether the job is aggregating
+     * @param location the output directory, the spill files are written to its {@value #SPILL_DIRECTORY} directory
+     */
+    public PartitionAggregator(boolean enabled, String location) {
+        this.enabled = enabled;
+        this.spillDirectory = location == null ? null : Paths.get(location).resolve(SPILL_DIRECTORY);
+    }
+
+    /**
+     * @return whether the job is aggregating
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Person process(Person person) {
+        items.increment();
+        String lastName = person.getLastName();
+        if (lastName != null) {
+            LongAdder count = lastNames.get(lastName);
+            if (count == null) {
+                count = lastNames.computeIfAbsent(lastName, k -> new LongAdder());
+            }
+            count.increment();
+        }
+        String firstName = person.getFirstName();
+        if (firstName != null && !firstNames.contains(firstName)) {
+            firstNames.add(firstName);
+        }
+        return person;
+    }
+
+    /**
+     * Marks the partition as started, in the context saved before its first chunk, so a restart can tell.
+     */
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        if (!enabled) {
+            return;
+        }
+        ExecutionContext context = stepExecution.getExecutionContext();
+        if (context.containsKey(STARTED_KEY)) {
+            log.warn("{} restarted, its aggregates only count the items after the restart", stepExecution.getStepName());
+            context.putString(RESTARTED_KEY, "true");
+        }
+        context.putString(STARTED_KEY, "true");
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (!enabled || stepExecution.getStatus() != BatchStatus.COMPLETED) {
+            return null;
+        }
+        /* the step execution's id keeps apart the partitions of jobs sharing the output directory */
+        Path spill = spillDirectory.resolve(stepExecution.getStepName() + "." + stepExecution.getId());
+        try {
+            write(spill);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the aggregates of " + stepExecution.getStepName(), e);
+        }
+        ExecutionContext context = stepExecution.getExecutionContext();
+        context.putString(FILE_KEY, new File(context.getString("inputFile", "")).getName());
+        context.putLong(ITEMS_KEY, items.sum());
+        context.putString(SPILL_KEY, spill.toString());
+        return null;
+    }
+
+    /**
+     * Writes the count of each last name then the first names, each set preceded by its size.
+     */
+    private void write(Path spill) throws IOException {
+        Files.createDirectories(spill.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill)))) {
+            out.writeInt(lastNames.size());
+            for (Map.Entry<String, LongAdder> entry : lastNames.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().sum());
+            }
+            out.writeInt(firstNames.size());
+            for (String firstName : firstNames) {
+                out.writeUTF(firstName);
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of a spill file written by a partition to those of the job.
+     *
+     * @param spill the spill file
+     * @param lastNames the items of each last name
+     * @param firstNames the distinct first names
+     */
+    static void merge(Path spill, Map<String, Long> lastNames, Set<String> firstNames) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill)))) {
+            for (int i = in.readInt(); i > 0; i--) {
+                String lastName = in.readUTF();
+                lastNames.merge(lastName, in.readLong(), Long::sum);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                firstNames.add(in.readUTF());
+            }
+        }
+    }
+}
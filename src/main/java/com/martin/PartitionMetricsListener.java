@@ -0,0 +1,333 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the hot path of a partition in the global Micrometer registry, tagged with the input file and the
+ * partition: latency histograms for reading, processing and writing, the time of each chunk and of its commit, the
+ * number of items and the bytes read and written. The bytes are counted as each chunk commits, from the positions the
+ * reader and writer save in the step's context. A reader that saves no position, the FlatFileItemReader or the
+ * prefetching reader of a pipelined step, has the partition's input size counted when the partition ends.
+ * <p>
+ * The meters are handed to the {@link MetricsFileReporter} when the partition ends, which removes them once the job
+ * has been reported.
+ * <p>
+ * One per step as it holds the start time of the stage in progress. When disabled every callback returns at once.
+ */
+public class PartitionMetricsListener implements StepExecutionListener, ChunkListener, ItemReadListener<Person>,
+        ItemProcessListener<Person, Person>, ItemWriteListener<Person> {
+    private static final Logger log = LoggerFactory.getLogger(PartitionMetricsListener.class);
+
+    private static final String READER_OFFSET_KEY = "personItemReader.read.offset";
+    private static final String WRITER_POSITION_KEY = "personItemWriter.current.count";
+
+    /* set once any partition of the JVM has read an item */
+    private static volatile boolean firstItemRead;
+
+    private final boolean enabled;
+    private final MetricsFileReporter reporter;
+    private final List<Meter> meters = new ArrayList<>();
+
+    private Timer readTimer;
+    private Timer processTimer;
+    private Timer writeTimer;
+    private Timer chunkTimer;
+    private Timer commitTimer;
+    private Counter items;
+    private Counter bytesRead;
+    private Counter bytesWritten;
+    private Tags tags;
+
+    private long readOffset;
+    private long writePosition;
+
+    private long readStart;
+    private long processStart;
+    private long writeStart;
+    private long writeEnd;
+    private long chunkStart;
+
+    public PartitionMetricsListener(boolean enabled, MetricsFileReporter reporter) {
+        this.enabled = enabled;
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        if (!enabled) {
+            return;
+        }
+        ExecutionContext context = stepExecution.getExecutionContext();
+        String inputFile = context.getString("inputFile", "");
+        tags = Tags.of("file", new File(inputFile).getName(), "partition", stepExecution.getStepName());
+
+        readTimer = timer("person.read", Duration.ofNanos(100), Duration.ofMillis(100));
+        processTimer = timer("person.process", Duration.ofNanos(100), Duration.ofMillis(100));
+        writeTimer = timer("person.write", Duration.ofMillis(1), Duration.ofSeconds(30));
+        chunkTimer = timer("person.chunk", Duration.ofMillis(1), Duration.ofSeconds(60));
+        commitTimer = timer("person.commit", Duration.ofMillis(1), Duration.ofSeconds(30));
+        items = counter("person.items");
+        bytesRead = counter("person.bytes.read");
+        bytesWritten = counter("person.bytes.written");
+
+        /* where the reader and writer start, the positions saved before a restart or the start of the byte range */
+        readOffset = context.getLong(READER_OFFSET_KEY,
+                context.getLong(CustomMultiResourcePartitioner.START_KEY_NAME, 0L));
+        writePosition = context.getLong(WRITER_POSITION_KEY, 0L);
+    }
+
+    private Timer timer(String name, Duration min, Duration max) {
+        Timer timer = Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(min)
+                .maximumExpectedValue(max)
+                .register(Metrics.globalRegistry);
+        meters.add(timer);
+        return timer;
+    }
+
+    private Counter counter(String name) {
+        Counter counter = Counter.builder(name).tags(tags).register(Metrics.globalRegistry);
+        meters.add(counter);
+        return counter;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (!enabled) {
+            return null;
+        }
+        ExecutionContext context = stepExecution.getExecutionContext();
+        recordBytes(context);
+        if (!context.containsKey(READER_OFFSET_KEY)) {
+            bytesRead.increment(context.getLong(CustomMultiResourcePartitioner.SIZE_KEY_NAME, 0L));
+        }
+
+        long millis = System.currentTimeMillis() - stepExecution.getStartTime().getTime();
+        log.debug("{} wrote {} items in {}ms, {} items/s", stepExecution.getStepName(), stepExecution.getWriteCount(),
+                millis, millis == 0 ? 0 : stepExecution.getWriteCount() * 1000L / millis);
+        reporter.release(stepExecution.getJobExecutionId(), meters);
+        return null;
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        if (enabled) {
+            chunkStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        if (enabled) {
+            long now = System.nanoTime();
+            chunkTimer.record(now - chunkStart, TimeUnit.NANOSECONDS);
+            if (writeEnd > chunkStart) {
+                commitTimer.record(now - writeEnd, TimeUnit.NANOSECONDS);
+            }
+            recordBytes(context.getStepContext().getStepExecution().getExecutionContext());
+        }
+    }
+
+    /**
+     * Counts the bytes the reader and writer have moved on since the last time, the context holding the positions
+     * they saved as the chunk committed.
+     */
+    private void recordBytes(ExecutionContext context) {
+        if (context.containsKey(READER_OFFSET_KEY)) {
+            long offset = context.getLong(READER_OFFSET_KEY);
+            bytesRead.increment(Math.max(0L, offset - readOffset));
+            readOffset = offset;
+        }
+        if (context.containsKey(WRITER_POSITION_KEY)) {
+            long position = context.getLong(WRITER_POSITION_KEY);
+            bytesWritten.increment(Math.max(0L, position - writePosition));
+            writePosition = position;
+        }
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+    }
+
+    @Override
+    public void beforeRead() {
+        if (enabled) {
+            readStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterRead(Person item) {
+        if (!firstItemRead) {
+            logFirstItem();
+        }
+        if (enabled) {
+            readTimer.record(System.nanoTime() - readStart, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void onReadError(Exception ex) {
+    }
+
+    /**
+     * Logs how long after the JVM started the first item was read, whether or not the metrics are enabled, the time
+     * to the first item being what the fast profile and a class data sharing archive shorten.
+     */
+    private static synchronized void logFirstItem() {
+        if (!firstItemRead) {
+            firstItemRead = true;
+            ProcessHandle.current().info().startInstant().ifPresent(start ->
+                    log.info("First item read {}ms after the JVM started",
+                            Duration.between(start, Instant.now()).toMillis()));
+        }
+    }
+
+    @Override
+    public void beforeProcess(Person item) {
+        if (enabled) {
+            processStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterProcess(Person item, Person result) {
+        if (enabled) {
+            processTimer.record(System.nanoTime() - processStart, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void onProcessError(Person item, Exception e) {
+    }
+
+    @Override
+    public void beforeWrite(List<? extends Person> items) {
+        if (enabled) {
+            writeStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterWrite(List<? extends Person> items) {
+        afterWrite(items.size());
+    }
+
+    /**
+     * @param count the number of items written
+     */
+    public void afterWrite(int count) {
+        if (enabled) {
+            writeEnd = System.nanoTime();
+            writeTimer.record(writeEnd - writeStart, TimeUnit.NANOSECONDS);
+            items.increment(count);
+        }
+    }
+
+    @Override
+    public void onWriteError(Exception exception, List<? extends Person> items) {
+    }
+
+    /**
+     * The callbacks other than processing, for a step whose processor returns a Future of each Person, which the
+     * writer is given. There is no processing time to record on the step's thread, only that of submitting the item.
+     * It must be registered in place of the listener, as the step registers any listener that is also an item
+     * listener for every item callback.
+     */
+    public static class FutureItemListener implements StepExecutionListener, ChunkListener, ItemReadListener<Person>,
+            ItemWriteListener<Future<Person>> {
+
+        private final PartitionMetricsListener metrics;
+
+        public FutureItemListener(PartitionMetricsListener metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void beforeStep(StepExecution stepExecution) {
+            metrics.beforeStep(stepExecution);
+        }
+
+        @Override
+        public ExitStatus afterStep(StepExecution stepExecution) {
+            return metrics.afterStep(stepExecution);
+        }
+
+        @Override
+        public void beforeChunk(ChunkContext context) {
+            metrics.beforeChunk(context);
+        }
+
+        @Override
+        public void afterChunk(ChunkContext context) {
+            metrics.afterChunk(context);
+        }
+
+        @Override
+        public void afterChunkError(ChunkContext context) {
+        }
+
+        @Override
+        public void beforeRead() {
+            metrics.beforeRead();
+        }
+
+        @Override
+        public void afterRead(Person item) {
+            metrics.afterRead(item);
+        }
+
+        @Override
+        public void onReadError(Exception ex) {
+        }
+
+        @Override
+        public void beforeWrite(List<? extends Future<Person>> items) {
+            metrics.beforeWrite(null);
+        }
+
+        @Override
+        public void afterWrite(List<? extends Future<Person>> items) {
+            metrics.afterWrite(items.size());
+        }
+
+        @Override
+        public void onWriteError(Exception exception, List<? extends Future<Person>> items) {
+        }
+    }
+}
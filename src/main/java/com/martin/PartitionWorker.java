@@ -0,0 +1,313 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs partitions for a manager in another JVM, see {@link ProcessPartitionHandler}. The worker connects to the
+ * manager, identifies itself with the shared token and then, one at a time, runs the partitions the manager sends it
+ * until the manager closes the connection.
+ * <p>
+ * Each partition arrives as the job's parameters, the name of the partition's StepExecution and its ExecutionContext,
+ * which on a restart holds the reader's and writer's state. The worker runs the subStep, or the pipelinedSubStep, with
+ * them against a job repository of its own and sends back the step's status, counts and final ExecutionContext, which
+ * the manager saves in the job's repository. While the step runs the worker also sends the counts and ExecutionContext
+ * of each chunk as it commits, a checkpoint, so the job's repository has them should the worker die and a restart of
+ * the partition resumes from its last chunk as it would in the manager's JVM.
+ */
+public class PartitionWorker {
+    private static final Logger log = LoggerFactory.getLogger(PartitionWorker.class);
+
+    /* only the classes the requests and results are made of are deserialized */
+    static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "com.martin.*;java.lang.*;java.util.*;org.springframework.batch.core.*;maxdepth=20;!*");
+
+    private final JobRepository jobRepository;
+    private final Step subStep;
+    private final Step pipelinedSubStep;
+    private final NotificationDispatcher notificationDispatcher;
+    private final AtomicLong requests = new AtomicLong();
+
+    private long connectTimeoutMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private ObjectOutputStream out;
+    private StepExecution running;
+
+    public PartitionWorker(JobRepository jobRepository, Step subStep, Step pipelinedSubStep,
+                           NotificationDispatcher notificationDispatcher) {
+        this.jobRepository = jobRepository;
+        this.subStep = subStep;
+        this.pipelinedSubStep = pipelinedSubStep;
+        this.notificationDispatcher = notificationDispatcher;
+    }
+
+    /**
+     * @param connectTimeoutMillis how long to keep trying to connect to a manager that is not yet listening
+     */
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Runs the partitions the manager sends until it closes the connection.
+     *
+     * @param manager the host and port of the manager, e.g. 127.0.0.1:41000
+     * @param token   the token the manager was started with
+     */
+    public void run(String manager, String token) throws IOException, ClassNotFoundException {
+        int colon = manager.lastIndexOf(':');
+        try (Socket socket = connect(manager.substring(0, colon), Integer.parseInt(manager.substring(colon + 1)))) {
+            socket.setTcpNoDelay(true);
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            in.setObjectInputFilter(FILTER);
+            log.info("Running partitions for the manager at {}", manager);
+
+            while (true) {
+                Request request;
+                try {
+                    request = (Request) in.readObject();
+                } catch (EOFException e) {
+                    log.info("The manager at {} has finished", manager);
+                    return;
+                }
+                send(execute(request));
+            }
+        }
+    }
+
+    /**
+     * Connects to the manager, which only listens once its job has partitions to run.
+     */
+    private Socket connect(String host, int port) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        while (true) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted connecting to the manager");
+            }
+        }
+    }
+
+    private synchronized void send(Result result) throws IOException {
+        out.writeObject(result);
+        /* each result is written in full, none of its objects refer back to an earlier one */
+        out.reset();
+        out.flush();
+    }
+
+    /**
+     * Sends the state of the running partition to the manager, as its chunk commits.
+     */
+    void checkpoint(StepExecution stepExecution) {
+        if (stepExecution != running) {
+            return;
+        }
+        try {
+            send(new Result(stepExecution, false));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lost the manager", e);
+        }
+    }
+
+    private Result execute(Request request) {
+        StepExecution stepExecution;
+        try {
+            /* a job execution of its own for each partition, the worker's repository is not the job's */
+            JobParameters parameters = new JobParametersBuilder(request.jobParameters)
+                    .addLong("worker.request", requests.incrementAndGet())
+                    .toJobParameters();
+            JobExecution jobExecution = jobRepository.createJobExecution("importUserJob", parameters);
+            stepExecution = jobExecution.createStepExecution(request.stepName);
+            request.context.forEach(stepExecution.getExecutionContext()::put);
+            jobRepository.add(stepExecution);
+            running = stepExecution;
+        } catch (Exception e) {
+            log.error("Failed to start partition {}", request.stepName, e);
+            return Result.failed(e);
+        }
+
+        Step step = "pipelined".equals(request.jobParameters.getString("step.mode")) ? pipelinedSubStep : subStep;
+        try {
+            step.execute(stepExecution);
+        } catch (Exception e) {
+            stepExecution.upgradeStatus(BatchStatus.FAILED);
+            stepExecution.addFailureException(e);
+        } finally {
+            running = null;
+        }
+        try {
+            /* the partition's file is ready once it has been notified, as the job ends in the manager */
+            notificationDispatcher.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new Result(stepExecution, true);
+    }
+
+    /**
+     * The worker's job repository, which hands the state of each chunk to the worker as the chunk commits.
+     */
+    public static class CheckpointingJobRepository extends DelegatingJobRepository {
+
+        private volatile PartitionWorker worker;
+
+        public CheckpointingJobRepository(JobRepository delegate) {
+            super(delegate);
+        }
+
+        void setWorker(PartitionWorker worker) {
+            this.worker = worker;
+        }
+
+        /**
+         * A step updates its StepExecution as it starts, after each chunk's ExecutionContext and as it ends.
+         */
+        @Override
+        public void update(StepExecution stepExecution) {
+            delegate.update(stepExecution);
+            PartitionWorker worker = this.worker;
+            if (worker != null && stepExecution.getStatus() == BatchStatus.STARTED) {
+                worker.checkpoint(stepExecution);
+            }
+        }
+    }
+
+    /**
+     * A partition for a worker to run.
+     */
+    public static class Request implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final JobParameters jobParameters;
+        final String stepName;
+        final HashMap<String, Object> context = new HashMap<>();
+
+        Request(StepExecution stepExecution) {
+            this.jobParameters = stepExecution.getJobExecution().getJobParameters();
+            this.stepName = stepExecution.getStepName();
+            for (Map.Entry<String, Object> entry : stepExecution.getExecutionContext().entrySet()) {
+                context.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * The state of a running partition or what became of it once it finished, the failures as their stack traces as
+     * the exceptions may not be serializable.
+     */
+    public static class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final boolean finished;
+        final BatchStatus status;
+        final String exitCode;
+        final String exitDescription;
+        final int readCount;
+        final int writeCount;
+        final int filterCount;
+        final int readSkipCount;
+        final int processSkipCount;
+        final int writeSkipCount;
+        final int commitCount;
+        final int rollbackCount;
+        final HashMap<String, Object> context = new HashMap<>();
+        final List<String> failures = new ArrayList<>();
+
+        Result(StepExecution stepExecution, boolean finished) {
+            this.finished = finished;
+            this.status = stepExecution.getStatus();
+            this.exitCode = stepExecution.getExitStatus().getExitCode();
+            this.exitDescription = stepExecution.getExitStatus().getExitDescription();
+            this.readCount = stepExecution.getReadCount();
+            this.writeCount = stepExecution.getWriteCount();
+            this.filterCount = stepExecution.getFilterCount();
+            this.readSkipCount = stepExecution.getReadSkipCount();
+            this.processSkipCount = stepExecution.getProcessSkipCount();
+            this.writeSkipCount = stepExecution.getWriteSkipCount();
+            this.commitCount = stepExecution.getCommitCount();
+            this.rollbackCount = stepExecution.getRollbackCount();
+            for (Map.Entry<String, Object> entry : stepExecution.getExecutionContext().entrySet()) {
+                context.put(entry.getKey(), entry.getValue());
+            }
+            for (Throwable failure : stepExecution.getFailureExceptions()) {
+                failures.add(stackTrace(failure));
+            }
+        }
+
+        private Result(Throwable failure) {
+            this.finished = true;
+            this.status = BatchStatus.FAILED;
+            this.exitCode = "FAILED";
+            this.exitDescription = stackTrace(failure);
+            this.readCount = 0;
+            this.writeCount = 0;
+            this.filterCount = 0;
+            this.readSkipCount = 0;
+            this.processSkipCount = 0;
+            this.writeSkipCount = 0;
+            this.commitCount = 0;
+            this.rollbackCount = 0;
+            failures.add(exitDescription);
+        }
+
+        static Result failed(Throwable failure) {
+            return new Result(failure);
+        }
+
+        private static String stackTrace(Throwable failure) {
+            StringWriter writer = new StringWriter();
+            failure.printStackTrace(new PrintWriter(writer));
+            return writer.toString();
+        }
+    }
+}
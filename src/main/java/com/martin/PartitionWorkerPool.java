@@ -0,0 +1,303 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The worker JVMs a {@link ProcessPartitionHandler} runs partitions on, each connected to the manager by a socket.
+ * Started on first use, it listens on the manager address and, unless told not to spawn them, starts the workers as
+ * copies of this application with the same options and a job repository in memory. Workers may also be started by hand,
+ * on this host or another, with --partition.manager=host:port and the same --partition.token.
+ * <p>
+ * A worker runs one partition at a time. A partition borrows an idle worker, waiting for one if they are all busy, and
+ * gives it back once the worker has sent its result. A worker whose connection fails is dropped and, when the workers
+ * were spawned, replaced, so jobs that run at the same time share the workers between them.
+ */
+public class PartitionWorkerPool implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(PartitionWorkerPool.class);
+
+    private final int workers;
+    private final InetAddress address;
+    private final int port;
+    private final String token;
+
+    private boolean spawn = true;
+    private List<String> jvmOptions = new ArrayList<>();
+    private List<String> applicationArguments = new ArrayList<>();
+    private long timeoutMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private ServerSocket serverSocket;
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final List<Process> processes = new ArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * @param workers the number of workers
+     * @param address the address to listen on, the loopback address unless workers run on other hosts
+     * @param port    the port to listen on, zero for any free port
+     * @param token   the token the workers must present, a random one if empty
+     */
+    public PartitionWorkerPool(int workers, String address, int port, String token) throws IOException {
+        this.workers = workers;
+        this.address = InetAddress.getByName(address);
+        this.port = port;
+        this.token = token == null || token.isEmpty() ? UUID.randomUUID().toString() : token;
+    }
+
+    /**
+     * @param spawn start the workers as processes of this host, false to wait for workers started by hand
+     */
+    public void setSpawn(boolean spawn) {
+        this.spawn = spawn;
+    }
+
+    /**
+     * @param jvmOptions the options of the spawned workers' JVMs, e.g. -Xmx1g
+     */
+    public void setJvmOptions(List<String> jvmOptions) {
+        this.jvmOptions = jvmOptions;
+    }
+
+    /**
+     * @param applicationArguments the arguments the application was started with, the spawned workers get its options
+     */
+    public void setApplicationArguments(List<String> applicationArguments) {
+        this.applicationArguments = applicationArguments;
+    }
+
+    /**
+     * @param timeoutMillis how long a partition waits for an idle worker before it fails
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Runs a partition on the next idle worker.
+     *
+     * @param checkpoints given the state of the partition after each chunk it commits
+     * @return the state of the partition once it has finished
+     * @throws IOException if the worker's connection fails, the partition may have been partly run
+     */
+    public PartitionWorker.Result execute(PartitionWorker.Request request,
+                                          Consumer<PartitionWorker.Result> checkpoints) throws Exception {
+        start();
+        Connection connection = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (connection == null) {
+            throw new IllegalStateException("No partition worker became available within " + timeoutMillis + "ms");
+        }
+        try {
+            PartitionWorker.Result result = connection.execute(request, checkpoints);
+            idle.add(connection);
+            return result;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            discard(connection);
+            throw e;
+        }
+    }
+
+    private synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        if (closed) {
+            throw new IllegalStateException("The partition workers have been shut down");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(address, port));
+        Thread acceptor = new Thread(this::accept, "partition-workers");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Waiting for {} partition workers on {}:{}", workers, address.getHostAddress(),
+                serverSocket.getLocalPort());
+        if (spawn) {
+            for (int i = 0; i < workers; i++) {
+                spawn();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Stopped accepting partition workers", e);
+                }
+                return;
+            }
+            try {
+                Connection connection = new Connection(socket);
+                if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                        connection.token.getBytes(StandardCharsets.UTF_8))) {
+                    log.warn("Refused a partition worker from {}, wrong token", socket.getRemoteSocketAddress());
+                    connection.close();
+                    continue;
+                }
+                log.info("Partition worker connected from {}", socket.getRemoteSocketAddress());
+                connections.add(connection);
+                idle.add(connection);
+                if (closed) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                log.warn("Refused a partition worker from {}: {}", socket.getRemoteSocketAddress(), e.toString());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Starts a worker, a copy of this application run from the same jar or classpath.
+     */
+    private synchronized void spawn() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command()
+                .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+        command.addAll(jvmOptions);
+        String classPath = System.getProperty("java.class.path");
+        if (classPath.endsWith(".jar") && !classPath.contains(File.pathSeparator)) {
+            command.addAll(Arrays.asList("-jar", classPath));
+        } else {
+            command.addAll(Arrays.asList("-cp", classPath, Application.class.getName()));
+        }
+        for (String argument : applicationArguments) {
+            /* only the options, the job parameters arrive with each partition */
+            if (argument.startsWith("--") && !argument.startsWith("--partition.")
+                    && !argument.startsWith("--spring.datasource.")) {
+                command.add(argument);
+            }
+        }
+        command.add("--partition.manager=" + address.getHostAddress() + ":" + serverSocket.getLocalPort());
+        command.add("--spring.datasource.url=jdbc:hsqldb:mem:worker");
+
+        ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+        /* not on the command line where any user of the host could read it */
+        builder.environment().put("PARTITION_TOKEN", token);
+        processes.add(builder.start());
+    }
+
+    private void discard(Connection connection) {
+        connection.close();
+        connections.remove(connection);
+        log.warn("Lost the partition worker at {}", connection.socket.getRemoteSocketAddress());
+        if (spawn && !closed) {
+            try {
+                spawn();
+            } catch (IOException e) {
+                log.error("Failed to start a partition worker to replace it", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the connections, which the workers take as the signal to exit, and then stops any that have not.
+     */
+    @Override
+    public void destroy() throws Exception {
+        List<Process> started;
+        synchronized (this) {
+            closed = true;
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            started = new ArrayList<>(processes);
+        }
+        connections.forEach(Connection::close);
+        for (Process process : started) {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                log.warn("Stopping partition worker {}", process.pid());
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            /* already closed */
+        }
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final ObjectOutputStream out;
+        final ObjectInputStream in;
+        final String token;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            /* a worker that connects and says nothing must not hold up the others */
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(10));
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            in.setObjectInputFilter(PartitionWorker.FILTER);
+            token = in.readUTF();
+            /* a partition takes as long as it takes */
+            socket.setSoTimeout(0);
+        }
+
+        PartitionWorker.Result execute(PartitionWorker.Request request, Consumer<PartitionWorker.Result> checkpoints)
+                throws IOException, ClassNotFoundException {
+            out.writeObject(request);
+            out.reset();
+            out.flush();
+            while (true) {
+                PartitionWorker.Result result = (PartitionWorker.Result) in.readObject();
+                if (result.finished) {
+                    return result;
+                }
+                checkpoints.accept(result);
+            }
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+}
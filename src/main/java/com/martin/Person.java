@@ -16,6 +16,15 @@ public class Person {
 
     private String value;
 
+    private String attributes;
+
+    public String getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(String attributes) {
+        this.attributes = attributes;
+    }
 
     public Person() {
     }
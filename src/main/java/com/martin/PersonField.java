@@ -0,0 +1,77 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The fields of a {@link Person} by the property names used to configure the readers and writers, each bound at
+ * compile time to its accessors so mapping a field costs a method call rather than a BeanWrapper lookup.
+ */
+public enum PersonField {
+
+    FIRST_NAME("firstName", Person::getFirstName, Person::setFirstName),
+    LAST_NAME("lastName", Person::getLastName, Person::setLastName),
+    VALUE("value", Person::getValue, Person::setValue),
+    ATTRIBUTES("attributes", Person::getAttributes, Person::setAttributes);
+
+    private final String propertyName;
+    private final Function<Person, String> getter;
+    private final BiConsumer<Person, String> setter;
+
+    PersonField(String propertyName, Function<Person, String> getter, BiConsumer<Person, String> setter) {
+        this.propertyName = propertyName;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @return the bean property name, e.g. firstName
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public String get(Person person) {
+        return getter.apply(person);
+    }
+
+    public void set(Person person, String value) {
+        setter.accept(person, value);
+    }
+
+    /**
+     * @param propertyName the bean property name, e.g. firstName
+     * @return the field
+     * @throws IllegalArgumentException if Person has no such property
+     */
+    public static PersonField forName(String propertyName) {
+        for (PersonField field : values()) {
+            if (field.propertyName.equals(propertyName)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Person has no property " + propertyName);
+    }
+
+    /**
+     * @param propertyNames bean property names
+     * @return the fields, in the same order
+     */
+    public static PersonField[] forNames(String... propertyNames) {
+        PersonField[] fields = new PersonField[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            fields[i] = forName(propertyNames[i]);
+        }
+        return fields;
+    }
+}
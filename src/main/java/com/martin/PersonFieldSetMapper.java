@@ -0,0 +1,37 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.item.file.mapping.FieldSetMapper;
+import org.springframework.batch.item.file.transform.FieldSet;
+
+/**
+ * Maps a {@link FieldSet} to a new {@link Person} by calling the setters directly, in place of a
+ * {@link org.springframework.batch.item.file.mapping.BeanWrapperFieldSetMapper}. The names are those given to the
+ * tokenizer, in the same order, and are resolved once when the mapper is created.
+ */
+public class PersonFieldSetMapper implements FieldSetMapper<Person> {
+
+    private final PersonField[] fields;
+
+    public PersonFieldSetMapper(String... names) {
+        this.fields = PersonField.forNames(names);
+    }
+
+    @Override
+    public Person mapFieldSet(FieldSet fieldSet) {
+        Person person = new Person();
+        for (int i = 0; i < fields.length; i++) {
+            fields[i].set(person, fieldSet.readString(i));
+        }
+        return person;
+    }
+}
@@ -3,33 +3,152 @@ package com.martin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.item.ItemProcessor;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * An ItemProcessor to process a Person item.
+ * <p>
+ * By default each Person is copied into a new, transformed, Person. In place mode transforms the Person it is given
+ * and returns it, which, with the ASCII fast path for upper-casing, avoids all but the upper-cased names. Processors
+ * set with {@link #setNextProcessors(List)} are applied in turn to the result, they should also modify and return the
+ * Person they are given so no further copies are made.
+ * <p>
+ * The conversion is logged once per chunk, individual items at debug level for one in every log sample items. Items
+ * may be processed on several threads at once, the counts are shared between them.
  */
-public class PersonItemProcessor implements ItemProcessor<Person, Person> {
+public class PersonItemProcessor implements ItemProcessor<Person, Person>, ChunkListener {
 
     private static final Logger log = LoggerFactory.getLogger(PersonItemProcessor.class);
 
+    private static final String PROCESSED = "Processed";
+
+    /* languages with case mappings of ASCII letters that differ from the ASCII ones, e.g. the Turkish dotted i */
+    private static final List<String> NON_ASCII_CASE_LANGUAGES = Arrays.asList("tr", "az", "lt");
+
+    private final boolean asciiFastPath = !NON_ASCII_CASE_LANGUAGES.contains(Locale.getDefault().getLanguage());
+
+    private boolean inPlace = false;
+    private int logSample = 1000;
+    private List<ItemProcessor<Person, Person>> nextProcessors = Collections.emptyList();
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicInteger converted = new AtomicInteger();
+
+    /**
+     * @param inPlace transform the given Person rather than a copy of it
+     */
+    public void setInPlace(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
+    /**
+     * @param logSample log one in this many items at debug level
+     */
+    public void setLogSample(int logSample) {
+        this.logSample = Math.max(1, logSample);
+    }
+
+    /**
+     * @param nextProcessors applied, in order, to each processed Person, a null result filters the item
+     */
+    public void setNextProcessors(List<ItemProcessor<Person, Person>> nextProcessors) {
+        this.nextProcessors = nextProcessors;
+    }
+
     /**
      * Processes a Person
      * @param person to be processed, never {@code null}.
-     * @return another Person object, processed in this simple example by setting the Value
-     * attribute to the word 'Processed'
+     * @return another Person object, or the same one in place mode, processed in this simple example by setting the
+     * Value attribute to the word 'Processed'
      */
     @Override
-    public Person process(final Person person) {
-        final String firstName = person.getFirstName().toUpperCase();
-        final String lastName = person.getLastName().toUpperCase();
+    public Person process(final Person person) throws Exception {
+        final String firstName = upperCase(person.getFirstName());
+        final String lastName = upperCase(person.getLastName());
 
-        final Person transformedPerson = new Person(firstName, lastName);
+        final boolean sampled = log.isDebugEnabled() && total.getAndIncrement() % logSample == 0;
+        Person transformedPerson;
+        if (inPlace) {
+            if (sampled) {
+                log.debug("Converting ({}) into ({}, {})", person, firstName, lastName);
+            }
+            transformedPerson = person;
+            transformedPerson.setFirstName(firstName);
+            transformedPerson.setLastName(lastName);
+        } else {
+            transformedPerson = new Person(firstName, lastName);
+            if (sampled) {
+                log.debug("Converting ({}) into ({})", person, transformedPerson);
+            }
+        }
+        transformedPerson.setValue(PROCESSED);
+        converted.incrementAndGet();
 
-        transformedPerson.setValue("Processed");
+        for (ItemProcessor<Person, Person> next : nextProcessors) {
+            transformedPerson = next.process(transformedPerson);
+            if (transformedPerson == null) {
+                return null;
+            }
+        }
+        return transformedPerson;
+    }
 
-        log.info("Converting (" + person + ") into (" + transformedPerson + ")");
+    /**
+     * Upper-cases a String without allocating when it is already upper case, or with a single copy when it is ASCII.
+     * Anything else is left to {@link String#toUpperCase()} so the result is always the same.
+     */
+    private String upperCase(String s) {
+        if (!asciiFastPath) {
+            return s.toUpperCase();
+        }
+        int length = s.length();
+        int i = 0;
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return s.toUpperCase();
+            }
+            if (c >= 'a' && c <= 'z') {
+                break;
+            }
+        }
+        if (i == length) {
+            return s;
+        }
 
-        return transformedPerson;
+        char[] chars = s.toCharArray();
+        for (; i < length; i++) {
+            char c = chars[i];
+            if (c >= 0x80) {
+                return s.toUpperCase();
+            }
+            if (c >= 'a' && c <= 'z') {
+                chars[i] = (char) (c - ('a' - 'A'));
+            }
+        }
+        return new String(chars);
     }
 
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        converted.set(0);
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        log.info("Converted {} items in {}", converted.get(), context.getStepContext().getStepName());
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+    }
 }
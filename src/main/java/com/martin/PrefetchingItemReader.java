@@ -0,0 +1,164 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads ahead of the step on a thread of its own, into a bounded buffer, so reading overlaps processing and writing.
+ * The items are returned in the order the delegate reads them.
+ * <p>
+ * The delegate is always opened from the start, only the number of items taken from the buffer is saved for restart,
+ * as the delegate is ahead of the step by up to the buffer's capacity. On restart that many items are read again and
+ * discarded before the buffer is filled.
+ * <p>
+ * The step's execution is registered on the reading thread so a step scoped delegate can be used.
+ *
+ * @param <T> the type of item read
+ */
+public class PrefetchingItemReader<T> extends ItemStreamSupport implements ItemStreamReader<T> {
+
+    private static final String READ_COUNT = "read.count";
+    private static final Object END = new Object();
+
+    private final ItemStreamReader<T> delegate;
+    private int capacity = 1000;
+
+    private BlockingQueue<Object> buffer;
+    private Thread reader;
+    private boolean finished;
+    private int count;
+
+    public PrefetchingItemReader(ItemStreamReader<T> delegate) {
+        this.delegate = delegate;
+        setName(ClassUtils.getShortName(PrefetchingItemReader.class));
+    }
+
+    /**
+     * @param capacity the most items read ahead of the step
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        count = executionContext.getInt(getExecutionContextKey(READ_COUNT), 0);
+        finished = false;
+        delegate.open(new ExecutionContext());
+
+        StepContext stepContext = StepSynchronizationManager.getContext();
+        StepExecution stepExecution = stepContext == null ? null : stepContext.getStepExecution();
+        int skip = count;
+        buffer = new ArrayBlockingQueue<>(capacity);
+        reader = new Thread(() -> fill(stepExecution, skip), "prefetch-" + Thread.currentThread().getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void fill(StepExecution stepExecution, int skip) {
+        if (stepExecution != null) {
+            StepSynchronizationManager.register(stepExecution);
+        }
+        try {
+            for (int i = 0; i < skip; i++) {
+                if (delegate.read() == null) {
+                    break;
+                }
+            }
+            T item;
+            while ((item = delegate.read()) != null) {
+                buffer.put(item);
+            }
+            buffer.put(END);
+        } catch (InterruptedException e) {
+            /* the step has closed the reader */
+        } catch (Throwable e) {
+            /* whatever failed, the step is told rather than left waiting for an item that never comes */
+            try {
+                buffer.put(new Failure(e));
+            } catch (InterruptedException closed) {
+                /* the step has closed the reader */
+            }
+        } finally {
+            if (stepExecution != null) {
+                StepSynchronizationManager.close();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T read() throws Exception {
+        if (finished) {
+            return null;
+        }
+        Object next = buffer.take();
+        if (next == END) {
+            finished = true;
+            return null;
+        }
+        if (next instanceof Failure) {
+            finished = true;
+            Throwable exception = ((Failure) next).exception;
+            if (exception instanceof Error) {
+                throw (Error) exception;
+            }
+            if (exception instanceof Exception) {
+                throw (Exception) exception;
+            }
+            throw new IllegalStateException("Failed to read ahead", exception);
+        }
+        count++;
+        return (T) next;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        executionContext.putInt(getExecutionContextKey(READ_COUNT), count);
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (reader != null) {
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reader = null;
+        }
+        buffer = null;
+        delegate.close();
+    }
+
+    /**
+     * An exception or error from the delegate, passed to the step in place of the next item.
+     */
+    private static final class Failure {
+        private final Throwable exception;
+
+        private Failure(Throwable exception) {
+            this.exception = exception;
+        }
+    }
+}
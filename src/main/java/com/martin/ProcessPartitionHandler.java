@@ -0,0 +1,149 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.UnexpectedJobExecutionException;
+import org.springframework.batch.core.partition.support.AbstractPartitionHandler;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the partitions in other JVMs, the workers of a {@link PartitionWorkerPool}, rather than on threads of this one,
+ * so a run is no longer limited to the heap and garbage collector of a single JVM. Each partition's ExecutionContext
+ * is sent to a worker, which runs the subStep and sends back the step's counts and ExecutionContext as each chunk
+ * commits and its status once it has finished. They are saved in the job repository here, the workers' own
+ * repositories are in memory, so a partition whose worker dies is failed with the state of its last chunk and a restart
+ * resumes from there, as it would for a partition run in this JVM.
+ * <p>
+ * The workers are shared by every job of the JVM, a job sends at most its concurrency of partitions to them at once.
+ */
+public class ProcessPartitionHandler extends AbstractPartitionHandler {
+    private static final Logger log = LoggerFactory.getLogger(ProcessPartitionHandler.class);
+
+    private final PartitionWorkerPool workers;
+    private final JobRepository jobRepository;
+    private boolean longestFirst;
+    private int concurrency;
+
+    public ProcessPartitionHandler(PartitionWorkerPool workers, JobRepository jobRepository) {
+        this.workers = workers;
+        this.jobRepository = jobRepository;
+    }
+
+    /**
+     * @param longestFirst send the partitions in descending order of size
+     */
+    public void setLongestFirst(boolean longestFirst) {
+        this.longestFirst = longestFirst;
+    }
+
+    /**
+     * @param concurrency the most partitions run at once, 0 (the default) for as many as there are workers
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    protected Set<StepExecution> doHandle(StepExecution managerStepExecution,
+                                          Set<StepExecution> partitionStepExecutions) throws Exception {
+        List<StepExecution> ordered = new ArrayList<>(partitionStepExecutions);
+        if (longestFirst) {
+            ordered.sort(Comparator.comparingLong(LongestFirstPartitionHandler::size).reversed());
+        }
+        Queue<StepExecution> queue = new ConcurrentLinkedQueue<>(ordered);
+
+        /* a thread per worker, each waits on the worker running its current partition */
+        SimpleAsyncTaskExecutor dispatchers = new SimpleAsyncTaskExecutor("dispatch-");
+        dispatchers.setDaemon(true);
+        int threads = Math.min(workers.getWorkers(), ordered.size());
+        if (concurrency > 0) {
+            threads = Math.min(threads, concurrency);
+        }
+        List<FutureTask<Void>> tasks = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                StepExecution stepExecution;
+                while ((stepExecution = queue.poll()) != null) {
+                    execute(stepExecution);
+                }
+                return null;
+            });
+            dispatchers.execute(task);
+            tasks.add(task);
+        }
+        for (FutureTask<Void> task : tasks) {
+            task.get();
+        }
+        return new LinkedHashSet<>(ordered);
+    }
+
+    private void execute(StepExecution stepExecution) {
+        stepExecution.setStartTime(new Date());
+        stepExecution.setStatus(BatchStatus.STARTED);
+        jobRepository.update(stepExecution);
+
+        try {
+            PartitionWorker.Result result = workers.execute(new PartitionWorker.Request(stepExecution), checkpoint -> {
+                applyCounts(stepExecution, checkpoint);
+                jobRepository.updateExecutionContext(stepExecution);
+                jobRepository.update(stepExecution);
+            });
+            apply(stepExecution, result);
+        } catch (Exception e) {
+            log.error("Partition {} failed in its worker", stepExecution.getStepName(), e);
+            stepExecution.upgradeStatus(BatchStatus.FAILED);
+            stepExecution.setExitStatus(ExitStatus.FAILED.addExitDescription(e));
+            stepExecution.addFailureException(e);
+        }
+
+        stepExecution.setEndTime(new Date());
+        jobRepository.updateExecutionContext(stepExecution);
+        jobRepository.update(stepExecution);
+    }
+
+    private static void apply(StepExecution stepExecution, PartitionWorker.Result result) {
+        stepExecution.setStatus(result.status);
+        stepExecution.setExitStatus(new ExitStatus(result.exitCode, result.exitDescription));
+        applyCounts(stepExecution, result);
+        for (String failure : result.failures) {
+            stepExecution.addFailureException(new UnexpectedJobExecutionException(
+                    "Partition " + stepExecution.getStepName() + " failed in its worker: " + failure));
+        }
+    }
+
+    private static void applyCounts(StepExecution stepExecution, PartitionWorker.Result result) {
+        stepExecution.setReadCount(result.readCount);
+        stepExecution.setWriteCount(result.writeCount);
+        stepExecution.setFilterCount(result.filterCount);
+        stepExecution.setReadSkipCount(result.readSkipCount);
+        stepExecution.setProcessSkipCount(result.processSkipCount);
+        stepExecution.setWriteSkipCount(result.writeSkipCount);
+        stepExecution.setCommitCount(result.commitCount);
+        stepExecution.setRollbackCount(result.rollbackCount);
+        result.context.forEach(stepExecution.getExecutionContext()::put);
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * A read only hash index of a reference file, kept in a file of its own and memory mapped, so the entries are outside
+ * the heap and in the page cache, shared by every partition thread and every worker process that maps the index.
+ * <p>
+ * Each line of the reference file is a key, a comma and the attributes for that key, lines starting with # are
+ * ignored. Keys are upper-cased, as the names are by the {@link PersonItemProcessor}, and the first line for a key wins.
+ * <p>
+ * The index is built, in two passes over the reference file, when it does not exist or the size or modification time
+ * of the reference file are not those recorded in it. It is written to a temporary file and moved into place, so
+ * processes that build it at the same time do no harm. Its layout:
+ * <pre>
+ * header  := MAGIC VERSION referenceSize:long referenceModified:long slots:long entries:long
+ * slot    := long, 0 if empty, else the top 24 bits of the key's hash and the 40 bit offset of its record
+ * record  := keyLength:varint key valueLength:varint value       UTF-8
+ * </pre>
+ * The slots are an open addressing table with linear probing, at most three quarters full. A lookup reads the slots
+ * from the key's hash until an empty one, comparing the key of a record only when the hash bits in its slot match.
+ */
+public class ReferenceIndex {
+    private static final Logger log = LoggerFactory.getLogger(ReferenceIndex.class);
+
+    private static final int MAGIC = 0x50524958;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 2 * Integer.BYTES + 4 * Long.BYTES;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    /* mapped a window at a time, a multiple of the slot size so no slot spans two windows */
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+    private final Path path;
+    private final MappedByteBuffer[] windows;
+    private final long mask;
+    private final long entries;
+
+    private ReferenceIndex(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            windows = map(channel, FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mask = getLong(2 * Integer.BYTES + 2 * Long.BYTES) - 1;
+        entries = getLong(2 * Integer.BYTES + 3 * Long.BYTES);
+    }
+
+    /**
+     * Maps the index of the reference file, building it first if it is missing or out of date.
+     *
+     * @param reference the reference file
+     * @param index     the index file
+     * @return the index
+     */
+    public static ReferenceIndex open(Path reference, Path index) throws IOException {
+        long size = Files.size(reference);
+        long modified = Files.getLastModifiedTime(reference).toMillis();
+        if (!isCurrent(index, size, modified)) {
+            long start = System.nanoTime();
+            long entries = build(reference, index, size, modified);
+            log.info("Built index {} of {} entries of {} in {}ms", index, entries, reference,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        ReferenceIndex referenceIndex = new ReferenceIndex(index);
+        log.info("Mapped index {} of {} entries", index, referenceIndex.entries);
+        return referenceIndex;
+    }
+
+    /**
+     * @return the number of keys in the index, counting those repeated in the reference file
+     */
+    public long size() {
+        return entries;
+    }
+
+    /**
+     * @param key the key, upper-case
+     * @return its attributes, null if it is not in the reference file
+     */
+    public String get(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes);
+        long fragment = hash >>> OFFSET_BITS;
+        for (long i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = getLong(HEADER_LENGTH + i * Long.BYTES);
+            if (slot == 0) {
+                return null;
+            }
+            if (slot >>> OFFSET_BITS == fragment) {
+                long offset = slot & OFFSET_MASK;
+                long length = getVarint(offset);
+                offset += varintLength(length);
+                if (length == bytes.length && matches(offset, bytes)) {
+                    offset += length;
+                    long valueLength = getVarint(offset);
+                    return getString(offset + varintLength(valueLength), (int) valueLength);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    private static boolean isCurrent(Path index, long size, long modified) throws IOException {
+        if (!Files.isRegularFile(index) || Files.size(index) < HEADER_LENGTH) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                /* read the whole header */
+            }
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == VERSION && header.getLong() == size
+                    && header.getLong() == modified;
+        }
+    }
+
+    /**
+     * Counts the lines of the reference file to size the slots, then appends the records after the slots and fills
+     * them in as it goes.
+     */
+    private static long build(Path reference, Path index, long size, long modified) throws IOException {
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(reference, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isEntry(line)) {
+                    lines++;
+                }
+            }
+        }
+        long slots = Long.highestOneBit(Math.max(16, lines + lines / 3) - 1) << 1;
+        long mask = slots - 1;
+        long dataStart = HEADER_LENGTH + slots * Long.BYTES;
+
+        Path tmp = Files.createTempFile(index.toAbsolutePath().getParent(), index.getFileName().toString(), ".tmp");
+        long entries = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer[] table = map(channel, FileChannel.MapMode.READ_WRITE, 0, dataStart);
+            channel.position(dataStart);
+            OutputStream data = new BufferedOutputStream(Channels.newOutputStream(channel), 1024 * 1024);
+            long offset = dataStart;
+            try (BufferedReader reader = Files.newBufferedReader(reference, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!isEntry(line)) {
+                        continue;
+                    }
+                    int comma = line.indexOf(',');
+                    byte[] key = (comma < 0 ? line : line.substring(0, comma)).trim().toUpperCase(Locale.ROOT)
+                            .getBytes(StandardCharsets.UTF_8);
+                    byte[] value = (comma < 0 ? "" : line.substring(comma + 1)).getBytes(StandardCharsets.UTF_8);
+                    if (offset > OFFSET_MASK) {
+                        throw new IOException("Reference file " + reference + " is too large to index");
+                    }
+
+                    /* a repeated key goes further along its probe sequence, so the first is found first */
+                    long hash = hash(key);
+                    long i = hash & mask;
+                    while (getLong(table, HEADER_LENGTH + i * Long.BYTES) != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    putLong(table, HEADER_LENGTH + i * Long.BYTES, (hash >>> OFFSET_BITS) << OFFSET_BITS | offset);
+                    entries++;
+
+                    offset += putVarint(data, key.length);
+                    data.write(key);
+                    offset += key.length;
+                    offset += putVarint(data, value.length);
+                    data.write(value);
+                    offset += value.length;
+                }
+            }
+            data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified).putLong(slots).putLong(entries);
+            for (MappedByteBuffer window : table) {
+                window.force();
+            }
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return entries;
+    }
+
+    private static boolean isEntry(String line) {
+        return !line.isEmpty() && !line.startsWith("#");
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long start, long end)
+            throws IOException {
+        MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((end - start + WINDOW_MASK) >>> WINDOW_BITS)];
+        for (int i = 0; i < windows.length; i++) {
+            long offset = start + ((long) i << WINDOW_BITS);
+            windows[i] = channel.map(mode, offset, Math.min(1L << WINDOW_BITS, end - offset));
+        }
+        return windows;
+    }
+
+    /**
+     * FNV-1a, with the bits mixed so both the low bits, the first slot, and the high bits, kept in the slot, vary.
+     */
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private boolean matches(long offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (getByte(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getString(long offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = getByte(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long getVarint(long offset) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = getByte(offset++);
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int putVarint(OutputStream out, long value) throws IOException {
+        int length = 1;
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+            length++;
+        }
+        out.write((int) value);
+        return length;
+    }
+
+    private byte getByte(long offset) {
+        return windows[(int) (offset >>> WINDOW_BITS)].get((int) (offset & WINDOW_MASK));
+    }
+
+    private long getLong(long offset) {
+        return getLong(windows, offset);
+    }
+
+    private static long getLong(MappedByteBuffer[] windows, long offset) {
+        return windows[(int) (offset >>> WINDOW_BITS)].getLong((int) (offset & WINDOW_MASK));
+    }
+
+    private static void putLong(MappedByteBuffer[] windows, long offset, long value) {
+        windows[(int) (offset >>> WINDOW_BITS)].putLong((int) (offset & WINDOW_MASK), value);
+    }
+}
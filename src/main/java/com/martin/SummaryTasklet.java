@@ -0,0 +1,141 @@
+/*
+ *   Copyright (c) 2023 Martin Newstead.  All Rights Reserved.
+ *
+ *   The author makes no representations or warranties about the suitability of the
+ *   software, either express or implied, including but not limited to the
+ *   implied warranties of merchantability, fitness for a particular
+ *   purpose, or non-infringement. The author shall not be liable for any damages
+ *   suffered by licensee as a result of using, modifying or distributing
+ *   this software or its derivatives.
+ */
+package com.martin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.martin.PartitionAggregator.FILE_KEY;
+import static com.martin.PartitionAggregator.ITEMS_KEY;
+import static com.martin.PartitionAggregator.RESTARTED_KEY;
+import static com.martin.PartitionAggregator.SPILL_KEY;
+import static com.martin.PartitionAggregator.STARTED_KEY;
+
+/**
+ * Merges the counts the {@link PartitionAggregator} of each partition spilled to a file named in its step's context
+ * and writes them to the summary file, tab separated: the number of items, of distinct first names, the items of each input file then
+ * of each last name. The partitions are those of every execution of the job, so a restarted job's summary includes
+ * the partitions completed before the restart.
+ * <p>
+ * The file is written to a temporary file then moved into place, so it is never seen half written, and the spill
+ * files are only deleted once it is, so a job that fails before then merges them again when it is restarted.
+ */
+public class SummaryTasklet implements Tasklet {
+    private static final Logger log = LoggerFactory.getLogger(SummaryTasklet.class);
+
+    private JobExplorer jobExplorer;
+    private Path summaryFile;
+
+    public void setJobExplorer(JobExplorer jobExplorer) {
+        this.jobExplorer = jobExplorer;
+    }
+
+    /**
+     * @param summaryFile the file the summary is written to
+     */
+    public void setSummaryFile(Path summaryFile) {
+        this.summaryFile = summaryFile;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        JobExecution jobExecution = chunkContext.getStepContext().getStepExecution().getJobExecution();
+        Map<String, StepExecution> partitions = new TreeMap<>();
+        for (JobExecution execution : jobExplorer.getJobExecutions(jobExecution.getJobInstance())) {
+            for (StepExecution stepExecution : execution.getStepExecutions()) {
+                if (stepExecution.getStatus() == BatchStatus.COMPLETED
+                        && stepExecution.getExecutionContext().containsKey(STARTED_KEY)) {
+                    partitions.merge(stepExecution.getStepName(), stepExecution,
+                            (a, b) -> a.getId() > b.getId() ? a : b);
+                }
+            }
+        }
+
+        long items = 0;
+        Map<String, Long> files = new TreeMap<>();
+        Map<String, Long> lastNames = new HashMap<>();
+        Set<String> firstNames = new HashSet<>();
+        List<String> restarted = new ArrayList<>();
+        List<Path> spills = new ArrayList<>();
+        for (StepExecution partition : partitions.values()) {
+            ExecutionContext context = partition.getExecutionContext();
+            if (!context.containsKey(SPILL_KEY)) {
+                throw new IllegalStateException("The aggregates of " + partition.getStepName() + " were not saved");
+            }
+            Path spill = Paths.get(context.getString(SPILL_KEY));
+            PartitionAggregator.merge(spill, lastNames, firstNames);
+            spills.add(spill);
+            long partitionItems = context.getLong(ITEMS_KEY);
+            items += partitionItems;
+            files.merge(context.getString(FILE_KEY), partitionItems, Long::sum);
+            if (context.containsKey(RESTARTED_KEY)) {
+                restarted.add(partition.getStepName());
+            }
+        }
+
+        Path tmp = summaryFile.resolveSibling(summaryFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            if (!restarted.isEmpty()) {
+                writer.write("# incomplete, restarted part way through: " + String.join(" ", restarted));
+                writer.newLine();
+            }
+            writer.write("items\t" + items);
+            writer.newLine();
+            writer.write("distinctFirstNames\t" + firstNames.size());
+            writer.newLine();
+            for (Map.Entry<String, Long> file : files.entrySet()) {
+                writer.write("file\t" + file.getKey() + "\t" + file.getValue());
+                writer.newLine();
+            }
+            for (Map.Entry<String, Long> lastName : new TreeMap<>(lastNames).entrySet()) {
+                writer.write("lastName\t" + lastName.getKey() + "\t" + lastName.getValue());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, summaryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path spill : spills) {
+            Files.deleteIfExists(spill);
+        }
+        if (!spills.isEmpty()) {
+            try {
+                Files.deleteIfExists(spills.get(0).getParent());
+            } catch (DirectoryNotEmptyException e) {
+                /* the spill files of another job sharing the output directory */
+            }
+        }
+        log.info("Summary of {} items in {} partitions written to {}", items, partitions.size(), summaryFile);
+        return RepeatStatus.FINISHED;
+    }
+}